@@ -0,0 +1,58 @@
+package com.librian.lib;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * Cost of writing and reading single chunks, which is paid for every frame regardless of its size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkBenchmark {
+    @Param({"64", "65536"})
+    public int length;
+
+    private final ChunkWriter writer = new ChunkWriter();
+    private final Frame frame = new Frame();
+    private byte[] data;
+    private ByteBuffer out, fcTL;
+
+    @Setup
+    public void setup() {
+        data = new byte[length];
+        new SplittableRandom(length).nextBytes(data);
+        out = ByteBuffer.allocate(length + 64);
+
+        fcTL = ByteBuffer.allocate(64);
+        writer.writeFcTL(fcTL, 0, 100, 80, 10, 20, (short) 1, (short) 25, APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_OVER);
+        fcTL.flip().position(12);
+    }
+
+    @Benchmark
+    public ByteBuffer writeFcTL() {
+        writer.writeFcTL(out.clear(), 1, 100, 80, 10, 20, (short) 1, (short) 25,
+                APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_OVER);
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuffer writeFdAT() {
+        writer.writeFdAT(out.clear(), 2, data, 0, length);
+        return out;
+    }
+
+    @Benchmark
+    public Frame readFcTL() {
+        Chunk.readFcTL(fcTL, frame);
+        return frame;
+    }
+}
@@ -0,0 +1,88 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * Synthetic animations for the benchmarks, generated from a fixed seed so that every run encodes the same pixels.
+ * <p>
+ * Every frame covers the whole canvas. The background is a smooth gradient with a little noise, which compresses
+ * like a photograph or a rendered scene rather than flat colour.
+ * <pre>
+ * delta
+ *   a sprite of a quarter of the canvas moves over the same background, so frames differ in a small region.
+ *
+ * full
+ *   the whole background shifts every frame, so every pixel changes.
+ * </pre>
+ * With alpha the background is partly transparent; otherwise every pixel is opaque.
+ */
+final class Corpus {
+    private Corpus() {
+    }
+
+    /**
+     * @param size   canvas width and height.
+     * @param count  number of frames.
+     * @param alpha  if true pixels are partly transparent.
+     * @param change "delta" or "full".
+     * @return frames of {@code TYPE_INT_ARGB}.
+     */
+    static BufferedImage[] frames(int size, int count, boolean alpha, String change) {
+        final boolean delta = switch (change) {
+            case "delta" -> true;
+            case "full" -> false;
+            default -> throw new IllegalArgumentException("Unknown change: " + change);
+        };
+
+        SplittableRandom random = new SplittableRandom(size * 31L + count);
+        int[] background = background(size, 0, alpha, random);
+        final int sprite = Math.max(1, size / 4);
+
+        BufferedImage[] frames = new BufferedImage[count];
+        for (int n = 0; n < count; ++n) {
+            BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+            if (delta) {
+                System.arraycopy(background, 0, pixels, 0, pixels.length);
+                final int x0 = n * (size - sprite) / Math.max(1, count - 1),
+                          y0 = (size - sprite) / 2;
+                for (int y = 0; y < sprite; ++y)
+                    for (int x = 0; x < sprite; ++x)
+                        pixels[(y0 + y) * size + x0 + x] = 0xFF000000 | (x * 255 / sprite) << 16 | (y * 255 / sprite);
+            } else
+                System.arraycopy(background(size, n, alpha, random), 0, pixels, 0, pixels.length);
+            frames[n] = image;
+        }
+        return frames;
+    }
+
+    /**
+     * @return APNG of the frames, in which the first frame is part of the animation.
+     */
+    static byte[] encode(BufferedImage[] frames) throws IOException {
+        APNGCollector collector = new APNGCollector(frames[0], 0, (short) 1, (short) 25,
+                APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+        for (int i = 1; i < frames.length; ++i)
+            collector.addFrame(frames[i], (short) 1, (short) 25);
+        return collector.build();
+    }
+
+    private static int[] background(int size, int shift, boolean alpha, SplittableRandom random) {
+        int[] pixels = new int[size * size];
+        for (int y = 0; y < size; ++y)
+            for (int x = 0; x < size; ++x) {
+                final int r = ((x + shift * 3) * 255 / size) & 0xFF,
+                          g = (y * 255 / size) & 0xFF,
+                          b = (((x + y) / 2 + shift) & 0xFF) ^ random.nextInt(8),
+                          a = alpha ? (x * 4 + y) % 256 : 255;
+                pixels[y * size + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+        return pixels;
+    }
+}
@@ -0,0 +1,88 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time to read an animation built from the corpus: separation into raw frames, the frame iterator,
+ * compositing of decoded frames alone and together with decoding, and the metadata probe.
+ * The {@code frames} counter gives the time per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param({"64", "512"})
+    public int size;
+    @Param({"8", "32"})
+    public int frames;
+    @Param({"false", "true"})
+    public boolean alpha;
+    @Param({"delta", "full"})
+    public String change;
+
+    private byte[] data;
+    private ArrayList<Frame> raw;
+
+    @Setup
+    public void setup() throws IOException {
+        data = Corpus.encode(Corpus.frames(size, frames, alpha, change));
+        raw = new APNGSeparator(ByteBuffer.wrap(data)).getRawFrames();
+    }
+
+    @Benchmark
+    public ArrayList<Frame> separate(Counters counters) throws IOException {
+        counters.frames += frames;
+        return new APNGSeparator(new ByteArrayInputStream(data)).getRawFrames();
+    }
+
+    @Benchmark
+    public void read(Counters counters, Blackhole blackhole) throws IOException {
+        try (APNGReader reader = new APNGReader(ByteBuffer.wrap(data))) {
+            while (reader.hasNext())
+                blackhole.consume(reader.next());
+        }
+        counters.frames += frames;
+    }
+
+    @Benchmark
+    public ArrayList<BufferedImage> mergeFrames(Counters counters) {
+        counters.frames += frames;
+        return APNGSeparator.mergeFrames(new ArrayList<>(raw), true);
+    }
+
+    @Benchmark
+    public void composited(Counters counters, Blackhole blackhole) throws IOException {
+        try (APNGReader reader = new APNGReader(ByteBuffer.wrap(data))) {
+            for (Iterator<BufferedImage> it = reader.composited(); it.hasNext(); )
+                blackhole.consume(it.next());
+        }
+        counters.frames += frames;
+    }
+
+    @Benchmark
+    public APNGInfo probe(Counters counters) throws IOException {
+        counters.frames += frames;
+        return APNGInfo.probe(ByteBuffer.wrap(data), false);
+    }
+
+    /**
+     * Number of read frames.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long frames;
+    }
+}
@@ -0,0 +1,66 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * Time to build a whole animation with {@code APNGCollector}, with and without the optimization of frames.
+ * The {@code frames} counter gives the time per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+    @Param({"64", "512"})
+    public int size;
+    @Param({"8", "32"})
+    public int frames;
+    @Param({"false", "true"})
+    public boolean alpha;
+    @Param({"delta", "full"})
+    public String change;
+
+    private BufferedImage[] corpus;
+
+    @Setup
+    public void setup() {
+        corpus = Corpus.frames(size, frames, alpha, change);
+    }
+
+    @Benchmark
+    public byte[] build(Counters counters) throws IOException {
+        return build(false, counters);
+    }
+
+    @Benchmark
+    public byte[] buildOptimized(Counters counters) throws IOException {
+        return build(true, counters);
+    }
+
+    private byte[] build(boolean optimize, Counters counters) throws IOException {
+        APNGCollector collector = new APNGCollector(corpus[0], 0, (short) 1, (short) 25,
+                APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+        collector.setOptimize(optimize);
+        for (int i = 1; i < corpus.length; ++i)
+            collector.addFrame(corpus[i], (short) 1, (short) 25);
+        counters.frames += corpus.length;
+        return collector.build();
+    }
+
+    /**
+     * Number of encoded frames.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long frames;
+    }
+}
@@ -0,0 +1,55 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * Latency of {@code APNGCollector.addFrame}: frames of the corpus are added one after another to an animation
+ * written to a stream, so that nothing accumulates in memory. Sampled, so the percentiles are reported as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+    private static final int FRAMES = 16;
+
+    @Param({"64", "512"})
+    public int size;
+    @Param({"false", "true"})
+    public boolean alpha;
+    @Param({"delta", "full"})
+    public String change;
+    @Param({"false", "true"})
+    public boolean optimize;
+
+    private BufferedImage[] corpus;
+    private APNGCollector collector;
+    private int next;
+
+    @Setup
+    public void setup() {
+        corpus = Corpus.frames(size, FRAMES, alpha, change);
+    }
+
+    @Setup(Level.Iteration)
+    public void start() throws IOException {
+        collector = new APNGCollector(OutputStream.nullOutputStream(), Integer.MAX_VALUE, corpus[0], 0,
+                (short) 1, (short) 25, APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+        collector.setOptimize(optimize);
+        next = 0;
+    }
+
+    @Benchmark
+    public void addFrame() throws IOException {
+        collector.addFrame(corpus[next++ % FRAMES], (short) 1, (short) 25);
+    }
+}
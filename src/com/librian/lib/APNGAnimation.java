@@ -0,0 +1,326 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * A decoded animated PNG that cannot be changed, so that one instance can be shared by any number of threads,
+ * for example to serve the frames of a popular animation without decoding it for every request.
+ * <p>
+ * The pixels of the frames are kept as they are written in APNG and composited on demand; composited frames are
+ * kept in a {@link CompositeCache} under SHA-256 of the encoded data, so animations decoded separately from the same
+ * data share them. A frame that is not in the cache is composited from the nearest preceding frame that is,
+ * or from the nearest frame that replaces the whole canvas. Threads that miss the same animation at the same time
+ * wait for one of them to composite it. Every method returns a copy, the instance never hands out its own arrays.
+ * <p>
+ * Frames are numbered as they are displayed: the static image is frame 0 only if it is part of the animation.
+ * A PNG without acTL chunk is an animation of one frame, the static image.
+ *
+ * @see APNGReader
+ * @see CompositeCache
+ */
+public final class APNGAnimation {
+    private final int width, height, plays;
+    private final int[] still;
+    private final Frame[] frames;
+    private final int[][] pixels;
+    private final long duration;
+    private final byte[] digest;
+    private final int hash;
+    private final CompositeCache cache;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private APNGAnimation(APNGReader reader, byte[] digest, CompositeCache cache) throws IOException {
+        this.width = reader.getWidth();
+        this.height = reader.getHeight();
+        this.digest = digest;
+        this.hash = Arrays.hashCode(digest);
+        this.cache = cache;
+
+        List<Frame> list = new ArrayList<>();
+        List<int[]> data = new ArrayList<>();
+        int[] still = null;
+        try {
+            while (reader.hasNext()) {
+                Frame frame = reader.next();
+                // The decoder makes a new raster for every frame, so its array is not shared with anyone.
+                int[] argb = ((DataBufferInt) frame.image.getRaster().getDataBuffer()).getData();
+                frame.image = null;
+                if (frame.animated) {
+                    list.add(frame);
+                    data.add(argb);
+                } else
+                    still = argb;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (still == null && list.isEmpty())
+            throw new IOException("Image data is missing");
+        if (list.isEmpty()) {
+            Frame frame = new Frame();
+            frame.width = width;
+            frame.height = height;
+            frame.animated = true;
+            list.add(frame);
+            data.add(still);
+        }
+
+        this.still = still;
+        this.plays = reader.getPlays();
+        this.frames = list.toArray(new Frame[0]);
+        this.pixels = data.toArray(new int[0][]);
+
+        long duration = 0;
+        for (Frame frame : frames)
+            duration += frame.delay();
+        this.duration = duration;
+    }
+
+    /**
+     * Decodes the animation in the buffer; its position is not changed. Composited frames are kept in
+     * the shared cache.
+     *
+     * @param data APNG data from the position to the limit of the buffer.
+     * @return decoded animation.
+     * @throws IOException if the data is not PNG data or cannot be decoded.
+     * @see CompositeCache#getShared()
+     */
+    public static APNGAnimation decode(ByteBuffer data) throws IOException {
+        return decode(data, CompositeCache.getShared());
+    }
+
+    /**
+     * Decodes the animation in the buffer; its position is not changed.
+     *
+     * @param data  APNG data from the position to the limit of the buffer.
+     * @param cache cache of composited frames, or null to composite frames every time.
+     * @return decoded animation.
+     * @throws IOException if the data is not PNG data or cannot be decoded.
+     */
+    public static APNGAnimation decode(ByteBuffer data, CompositeCache cache) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(data.slice());
+
+        try (APNGReader reader = new APNGReader(data)) {
+            return new APNGAnimation(reader, digest.digest(), cache);
+        }
+    }
+
+    /**
+     * Decodes the animation in the file, which is mapped into memory. Composited frames are kept in the shared cache.
+     *
+     * @param path APNG file.
+     * @return decoded animation.
+     * @throws IOException if an error occurs during mapping, the file is not a PNG file or cannot be decoded.
+     */
+    public static APNGAnimation decode(Path path) throws IOException {
+        return decode(APNGReader.map(path));
+    }
+
+    /**
+     * Decodes the animation in the stream, which is read to the end. Composited frames are kept in the shared cache.
+     *
+     * @param input APNG stream.
+     * @return decoded animation.
+     * @throws IOException if an error occurs during reading, the stream is not a PNG stream or cannot be decoded.
+     */
+    public static APNGAnimation decode(InputStream input) throws IOException {
+        return decode(ByteBuffer.wrap(input.readAllBytes()));
+    }
+
+    /**
+     * @return canvas width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return canvas height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of times to loop the animation, 0 for infinite looping.
+     */
+    public int getPlays() {
+        return plays;
+    }
+
+    /**
+     * @return number of frames of the animation.
+     */
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    /**
+     * @return duration of one play of the animation.
+     */
+    public Duration getDuration() {
+        return Duration.ofNanos(duration);
+    }
+
+    /**
+     * @param index frame index.
+     * @return delay of the frame.
+     * @throws IndexOutOfBoundsException if there is no such frame.
+     */
+    public Duration getDelay(int index) {
+        return frames[Objects.checkIndex(index, frames.length)].getDelay();
+    }
+
+    /**
+     * @return SHA-256 of the encoded data, which identifies the animation in the cache.
+     */
+    public byte[] getDigest() {
+        return digest.clone();
+    }
+
+    /**
+     * @return new image of the static image as it displays in a non-animated PNG decoder.
+     */
+    public BufferedImage getStaticImage() {
+        return still == null ? getImage(0) : image(still, width, height);
+    }
+
+    /**
+     * @param index frame index.
+     * @return new frame as it is written in APNG, with a copy of its image.
+     * @throws IndexOutOfBoundsException if there is no such frame.
+     */
+    public Frame getFrame(int index) {
+        Frame source = frames[Objects.checkIndex(index, frames.length)];
+        Frame frame = new Frame();
+        frame.width = source.width;
+        frame.height = source.height;
+        frame.x = source.x;
+        frame.y = source.y;
+        frame.numerator = source.numerator;
+        frame.denominator = source.denominator;
+        frame.dispose = source.dispose;
+        frame.blend = source.blend;
+        frame.animated = true;
+        frame.image = image(pixels[index], source.width, source.height);
+        return frame;
+    }
+
+    /**
+     * @param index frame index.
+     * @return new image of the canvas size with the frame as it is displayed in the animation.
+     * @throws IndexOutOfBoundsException if there is no such frame.
+     */
+    public BufferedImage getImage(int index) {
+        return image(composite(index), width, height);
+    }
+
+    /**
+     * Copies the frame as it is displayed in the animation into the caller's buffer.
+     *
+     * @param index  frame index.
+     * @param dst    buffer for non-premultiplied ARGB pixels.
+     * @param offset index of the upper left pixel of the canvas in the buffer.
+     * @param scan   distance between rows in the buffer.
+     * @throws IndexOutOfBoundsException if there is no such frame.
+     */
+    public void copyImage(int index, int[] dst, int offset, int scan) {
+        Compositor.copy(composite(index), 0, width, dst, offset, scan, width, height);
+    }
+
+    /**
+     * @return pixels of the composited frame, which must not be modified.
+     */
+    private int[] composite(int index) {
+        Objects.checkIndex(index, frames.length);
+        if (cache == null)
+            return render(index);
+
+        int[] canvas = cache.get(key(index));
+        if (canvas != null)
+            return canvas;
+
+        lock.lock();
+        try {
+            // Another thread may have composited the frame while this one waited.
+            canvas = cache.peek(key(index));
+            return canvas != null ? canvas : render(index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Composites the frames from the nearest one the canvas can be restored from up to the frame, storing each
+     * of them in the cache.
+     *
+     * @return new pixels of the composited frame.
+     */
+    private int[] render(int index) {
+        Compositor compositor = new Compositor(width, height);
+        int start = 0;
+        for (int i = index; i >= 0; --i) {
+            final Frame frame = frames[i];
+            // The canvas after a frame disposed to the previous contents depends on the frames before it.
+            if (i < index && frame.dispose == APNG_DISPOSE_OP_PREVIOUS)
+                continue;
+            if (frame.blend == APNG_BLEND_OP_SOURCE && frame.x == 0 && frame.y == 0
+                    && frame.width == width && frame.height == height) {
+                start = i;
+                break;
+            }
+            int[] canvas = i < index && cache != null ? cache.peek(key(i)) : null;
+            if (canvas != null) {
+                compositor.restore(canvas);
+                if (frame.dispose == APNG_DISPOSE_OP_BACKGROUND)
+                    Compositor.clear(compositor.canvas, width, frame.x, frame.y, frame.width, frame.height);
+                start = i + 1;
+                break;
+            }
+        }
+
+        int[] canvas = null;
+        for (int i = start; i <= index; ++i) {
+            final Frame frame = frames[i];
+            compositor.render(pixels[i], 0, frame.width, frame.x, frame.y, frame.width, frame.height,
+                    frame.dispose, frame.blend);
+            canvas = compositor.canvas.clone();
+            if (cache != null)
+                cache.put(key(i), canvas);
+        }
+        return canvas;
+    }
+
+    private CompositeCache.Key key(int index) {
+        return new CompositeCache.Key(digest, hash, index);
+    }
+
+    private static BufferedImage image(int[] pixels, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        System.arraycopy(pixels, 0, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0,
+                width * height);
+        return image;
+    }
+}
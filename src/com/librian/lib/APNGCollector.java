@@ -1,47 +1,180 @@
 package com.librian.lib;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import jdk.jfr.FlightRecorder;
 
 /**
  * A class to create an animated PNG.
+ * <p>
+ * By default the animation is collected in memory and returned by {@link #build()}.
+ * The constructors that take an {@code OutputStream} or a {@code SeekableByteChannel} write every chunk
+ * to that sink as soon as the frame is added, the animation is completed by {@link #close()}.
+ * <p>
+ * Nothing is encoded until the first frame is added, so the settings apply to the static image as well.
+ * <p>
+ * Frames added by {@link #addFrameAsync} are encoded in parallel and their chunks are written in the order
+ * the frames were added, with the same sequence numbers as if they were added by {@link #addFrame}.
+ * An instance is not thread-safe: frames must be added from one thread at a time.
+ * <p>
+ * With {@link #setOptimize(boolean)} every frame is cropped to the region that differs from the displayed
+ * animation, and the disposal and blend operations are chosen to give the smallest encoding.
+ * <p>
+ * Besides {@code BufferedImage}, frames can be added from an {@code IntBuffer} or a {@code ByteBuffer} of pixels,
+ * or row by row from a {@link RowSupplier}; rows are filtered and compressed as they are read, so a frame
+ * of a huge canvas never has to exist as a Java image.
  */
-public class APNGCollector {
+public class APNGCollector implements Closeable {
     public final static byte APNG_DISPOSE_OP_NONE = 0,
                              APNG_DISPOSE_OP_BACKGROUND = 1,
                              APNG_DISPOSE_OP_PREVIOUS = 2;
     public final static byte APNG_BLEND_OP_SOURCE = 0,
                              APNG_BLEND_OP_OVER = 1;
+    public final static byte PNG_FILTER_NONE = 0,
+                             PNG_FILTER_SUB = 1,
+                             PNG_FILTER_UP = 2,
+                             PNG_FILTER_AVERAGE = 3,
+                             PNG_FILTER_PAETH = 4,
+                             PNG_FILTER_ADAPTIVE = 5;
+    /**
+     * Number of bytes of filtered image data from which a frame is compressed in parallel by default.
+     *
+     * @see APNGCollector#setParallelCompression(boolean, int)
+     */
+    public final static int DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
 
-    private final ByteArrayOutputStream result = new ByteArrayOutputStream();
-    private final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
-    private final int plays;
-    private int frames, index = 0;
+    private final ByteArrayOutputStream result;
+    private final ByteArrayOutputStream chunks;
+    private final OutputStream out;
+    private final SeekableByteChannel channel;
+    private final ChunkWriter writer = new ChunkWriter();
+    private final int plays, declared;
+    private long acTLPosition;
+    private int frames, accepted, index = 0;
+    private boolean closed;
+    private RowSupplier sImg;
+    private Pending first;
+    private FrameOptimizer optimizer;
+    private boolean optimize;
+    private final ConcurrentLinkedQueue<PNGEncoder> encoders = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private final int limit = 4 * Runtime.getRuntime().availableProcessors();
+    private Executor executor = ForkJoinPool.commonPool();
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private byte filter = PNG_FILTER_NONE;
+    private PixelFormat format = PixelFormat.RGBA_8;
+    private FrameCache cache;
+    private boolean blocks;
+    private int threshold = DEFAULT_PARALLEL_THRESHOLD;
+    private ParallelDeflater parallel;
+    private boolean tune;
+    private long frameBudget, animationBudget;
+    private FrameTuner tuner;
+    private APNGListener listener;
+    private int written;
 
     /**
      * Constructs an instance of an object that creates an APNG in which a static image is NOT part of the animation.
      *
-     * @param sImg  a static image that displays in a non-animated PNG decoder.
+     * @param sImg  a static image that displays in a non-animated PNG decoder;
+     *              it is copied, so the image can be changed afterward.
      * @param plays a number of times that this animation should play.
      *              If it is 0, the animation should play indefinitely.
      * @throws IOException if an error occurs during writing.
      */
     public APNGCollector(BufferedImage sImg, int plays) throws IOException {
-        this.plays = plays;
+        this(null, null, -1, sImg, plays);
+    }
+
+    /**
+     * Constructs an instance of an object that writes an APNG in which a static image is NOT part of the animation
+     * straight to the stream. Since the acTL chunk precedes the frames, the number of frames must be known in advance.
+     *
+     * @param sink   stream the APNG is written to. It is not closed by this object.
+     * @param frames a number of frames that will be added to this animation.
+     * @param sImg   a static image that displays in a non-animated PNG decoder;
+     *               it is copied, so the image can be changed afterward.
+     * @param plays  a number of times that this animation should play.
+     *               If it is 0, the animation should play indefinitely.
+     * @throws IOException if an error occurs during writing.
+     * @see APNGCollector#close()
+     */
+    public APNGCollector(OutputStream sink, int frames, BufferedImage sImg, int plays) throws IOException {
+        this(sink, null, frames, sImg, plays);
+    }
+
+    /**
+     * Constructs an instance of an object that writes an APNG in which a static image is NOT part of the animation
+     * straight to the channel. The number of frames in the acTL chunk is written in place on {@link #close()}.
+     *
+     * @param sink  channel the APNG is written to, starting from its current position. It is not closed by this object.
+     * @param sImg  a static image that displays in a non-animated PNG decoder;
+     *              it is copied, so the image can be changed afterward.
+     * @param plays a number of times that this animation should play.
+     *              If it is 0, the animation should play indefinitely.
+     * @throws IOException if an error occurs during writing.
+     * @see APNGCollector#close()
+     */
+    public APNGCollector(SeekableByteChannel sink, BufferedImage sImg, int plays) throws IOException {
+        this(Channels.newOutputStream(sink), sink, -1, sImg, plays);
+    }
 
-        ByteArrayInputStream in = createPNGStream(sImg);
-        result.write(in.readNBytes(33));
+    private APNGCollector(OutputStream sink, SeekableByteChannel channel, int declared,
+                          BufferedImage sImg, int plays) throws IOException {
+        this(sink, channel, declared, plays);
+        this.sImg = PNGEncoder.snapshot(sImg);
 
-        chunks.write(in.readNBytes(in.available() - 12));
+        first = new Pending(sImg.getWidth(), sImg.getHeight(), 0, 0, (short) 0, (short) 0,
+                APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE, null);
+        first.control = false;
+        first.idat = true;
+    }
+
+    /**
+     * @param sink     stream the chunks are written to, or null to collect the animation in memory.
+     * @param channel  channel under the {@code sink}, or null.
+     * @param declared number of frames declared for a stream.
+     * @param plays    number of times that this animation should play.
+     */
+    private APNGCollector(OutputStream sink, SeekableByteChannel channel, int declared, int plays) {
+        this.plays = plays;
+        this.declared = declared;
+        this.channel = channel;
+
+        if (sink == null) {
+            result = new ByteArrayOutputStream();
+            chunks = new ByteArrayOutputStream();
+            out = chunks;
+        } else {
+            if (channel == null && declared <= 0)
+                throw new IllegalArgumentException("The number of frames must be declared for a stream: " + declared);
+            result = null;
+            chunks = null;
+            out = sink;
+        }
     }
 
     /**
      * Constructs an instance of an object that creates an APNG in which a static image is part of the animation.
      *
-     * @param sImg        a static image that displays in a non-animated PNG decoder.
+     * @param sImg        a static image that displays in a non-animated PNG decoder;
+     *                    it is copied, so the image can be changed afterward.
      * @param plays       a number of times that this animation should play.
      *                    If it is 0, the animation should play indefinitely.
      * @param numerator   define the numerator of the delay fraction
@@ -76,14 +209,177 @@ public class APNGCollector {
                          short denominator,
                          byte dispose,
                          byte blend) throws IOException {
-        this.plays = plays;
+        this(null, null, -1, sImg.getWidth(), sImg.getHeight(), PNGEncoder.snapshot(sImg),
+                plays, numerator, denominator, dispose, blend);
+    }
+
+    /**
+     * Constructs an instance of an object that writes an APNG in which a static image is part of the animation
+     * straight to the stream. Since the acTL chunk precedes the frames, the number of frames must be known in advance.
+     *
+     * @param sink        stream the APNG is written to. It is not closed by this object.
+     * @param frames      a number of frames in this animation, including the static image.
+     * @param sImg        a static image that displays in a non-animated PNG decoder;
+     *                    it is copied, so the image can be changed afterward.
+     * @param plays       a number of times that this animation should play.
+     *                    If it is 0, the animation should play indefinitely.
+     * @param numerator   define the numerator of the delay fraction
+     * @param denominator define the denominator of the delay fraction.
+     * @param dispose     defines the type of frame area disposal to be done after rendering this frame.
+     * @param blend       specifies whether the frame is to be alpha blended into the current output buffer content,
+     *                    or whether it should completely replace its region in the output buffer.
+     * @throws IOException if an error occurs during writing or reading a static image.
+     * @see APNGCollector#APNGCollector(BufferedImage, int, short, short, byte, byte)
+     * @see APNGCollector#close()
+     */
+    public APNGCollector(OutputStream sink,
+                         int frames,
+                         BufferedImage sImg,
+                         int plays,
+                         short numerator,
+                         short denominator,
+                         byte dispose,
+                         byte blend) throws IOException {
+        this(sink, null, frames, sImg.getWidth(), sImg.getHeight(), PNGEncoder.snapshot(sImg),
+                plays, numerator, denominator, dispose, blend);
+    }
+
+    /**
+     * Constructs an instance of an object that writes an APNG in which a static image is part of the animation
+     * straight to the channel. The number of frames in the acTL chunk is written in place on {@link #close()}.
+     *
+     * @param sink        channel the APNG is written to, starting from its current position.
+     *                    It is not closed by this object.
+     * @param sImg        a static image that displays in a non-animated PNG decoder;
+     *                    it is copied, so the image can be changed afterward.
+     * @param plays       a number of times that this animation should play.
+     *                    If it is 0, the animation should play indefinitely.
+     * @param numerator   define the numerator of the delay fraction
+     * @param denominator define the denominator of the delay fraction.
+     * @param dispose     defines the type of frame area disposal to be done after rendering this frame.
+     * @param blend       specifies whether the frame is to be alpha blended into the current output buffer content,
+     *                    or whether it should completely replace its region in the output buffer.
+     * @throws IOException if an error occurs during writing or reading a static image.
+     * @see APNGCollector#APNGCollector(BufferedImage, int, short, short, byte, byte)
+     * @see APNGCollector#close()
+     */
+    public APNGCollector(SeekableByteChannel sink,
+                         BufferedImage sImg,
+                         int plays,
+                         short numerator,
+                         short denominator,
+                         byte dispose,
+                         byte blend) throws IOException {
+        this(Channels.newOutputStream(sink), sink, -1, sImg.getWidth(), sImg.getHeight(), PNGEncoder.snapshot(sImg),
+                plays, numerator, denominator, dispose, blend);
+    }
+
+    /**
+     * Constructs an instance of an object that creates an APNG in which a static image is part of the animation,
+     * with the static image supplied row by row.
+     *
+     * @param width       width of the static image and the canvas.
+     * @param height      height of the static image and the canvas.
+     * @param sImg        rows of a static image that displays in a non-animated PNG decoder;
+     *                    they are requested when the first frame is added, or by {@link #build()}.
+     * @param plays       a number of times that this animation should play.
+     *                    If it is 0, the animation should play indefinitely.
+     * @param numerator   define the numerator of the delay fraction
+     * @param denominator define the denominator of the delay fraction.
+     * @param dispose     defines the type of frame area disposal to be done after rendering this frame.
+     * @param blend       specifies whether the frame is to be alpha blended into the current output buffer content,
+     *                    or whether it should completely replace its region in the output buffer.
+     * @see APNGCollector#APNGCollector(BufferedImage, int, short, short, byte, byte)
+     * @see APNGCollector#addFrame(int, int, RowSupplier, int, int, short, short, byte, byte)
+     */
+    public APNGCollector(int width,
+                         int height,
+                         RowSupplier sImg,
+                         int plays,
+                         short numerator,
+                         short denominator,
+                         byte dispose,
+                         byte blend) {
+        this(null, null, -1, width, height, sImg, plays, numerator, denominator, dispose, blend);
+    }
 
-        ByteArrayInputStream in = createPNGStream(sImg);
-        result.write(in.readNBytes(33));
+    /**
+     * Constructs an instance of an object that writes an APNG in which a static image is part of the animation
+     * straight to the stream, with the static image supplied row by row.
+     *
+     * @param sink        stream the APNG is written to. It is not closed by this object.
+     * @param frames      a number of frames in this animation, including the static image.
+     * @param width       width of the static image and the canvas.
+     * @param height      height of the static image and the canvas.
+     * @param sImg        rows of a static image that displays in a non-animated PNG decoder;
+     *                    they are requested when the first frame is added, or by {@link #close()}.
+     * @param plays       a number of times that this animation should play.
+     *                    If it is 0, the animation should play indefinitely.
+     * @param numerator   define the numerator of the delay fraction
+     * @param denominator define the denominator of the delay fraction.
+     * @param dispose     defines the type of frame area disposal to be done after rendering this frame.
+     * @param blend       specifies whether the frame is to be alpha blended into the current output buffer content,
+     *                    or whether it should completely replace its region in the output buffer.
+     * @see APNGCollector#APNGCollector(OutputStream, int, BufferedImage, int, short, short, byte, byte)
+     */
+    public APNGCollector(OutputStream sink,
+                         int frames,
+                         int width,
+                         int height,
+                         RowSupplier sImg,
+                         int plays,
+                         short numerator,
+                         short denominator,
+                         byte dispose,
+                         byte blend) {
+        this(sink, null, frames, width, height, sImg, plays, numerator, denominator, dispose, blend);
+    }
 
-        chunks.write(Chunk.createFcTL(index++, sImg.getWidth(), sImg.getHeight(), 0, 0, numerator, denominator, dispose, blend));
-        chunks.write(in.readNBytes(in.available() - 12));
-        ++frames;
+    /**
+     * Constructs an instance of an object that writes an APNG in which a static image is part of the animation
+     * straight to the channel, with the static image supplied row by row.
+     *
+     * @param sink        channel the APNG is written to, starting from its current position.
+     *                    It is not closed by this object.
+     * @param width       width of the static image and the canvas.
+     * @param height      height of the static image and the canvas.
+     * @param sImg        rows of a static image that displays in a non-animated PNG decoder;
+     *                    they are requested when the first frame is added, or by {@link #close()}.
+     * @param plays       a number of times that this animation should play.
+     *                    If it is 0, the animation should play indefinitely.
+     * @param numerator   define the numerator of the delay fraction
+     * @param denominator define the denominator of the delay fraction.
+     * @param dispose     defines the type of frame area disposal to be done after rendering this frame.
+     * @param blend       specifies whether the frame is to be alpha blended into the current output buffer content,
+     *                    or whether it should completely replace its region in the output buffer.
+     * @see APNGCollector#APNGCollector(SeekableByteChannel, BufferedImage, int, short, short, byte, byte)
+     */
+    public APNGCollector(SeekableByteChannel sink,
+                         int width,
+                         int height,
+                         RowSupplier sImg,
+                         int plays,
+                         short numerator,
+                         short denominator,
+                         byte dispose,
+                         byte blend) {
+        this(Channels.newOutputStream(sink), sink, -1, width, height, sImg, plays, numerator, denominator,
+                dispose, blend);
+    }
+
+    private APNGCollector(OutputStream sink, SeekableByteChannel channel, int declared,
+                          int width, int height, RowSupplier sImg, int plays,
+                          short numerator, short denominator, byte dispose, byte blend) {
+        this(sink, channel, declared, plays);
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        if (sImg == null)
+            throw new NullPointerException("sImg");
+        this.sImg = sImg;
+
+        first = new Pending(width, height, 0, 0, numerator, denominator, dispose, blend, null);
+        first.idat = true;
+        accepted = 1;
     }
 
     /**
@@ -117,6 +413,7 @@ public class APNGCollector {
      *    the frame should be composited onto the output buffer based on its alpha.}
      *  </pre>
      * @throws IOException if an error occurs during writing or reading a frame.
+     * @throws IllegalStateException if the animation is closed or all frames declared for a stream are added.
      */
     public void addFrame(BufferedImage frame,
                          int x,
@@ -125,46 +422,716 @@ public class APNGCollector {
                          short denominator,
                          byte dispose,
                          byte blend) throws IOException {
-        ByteArrayInputStream in = createPNGStream(frame);
-        in.skipNBytes(33);
+        addFrame(frame.getWidth(), frame.getHeight(), PNGEncoder.rows(frame), x, y, numerator, denominator,
+                dispose, blend);
+    }
+
+    /**
+     * Add frame in animation whose pixels are supplied row by row. Rows are filtered and compressed as they
+     * are supplied, so only a few rows of the frame are in memory at once, besides the compressed data.
+     * The optimization of frames, the cache and the parallel compression keep the whole frame in memory.
+     *
+     * @param width       frame width.
+     * @param height      frame height.
+     * @param rows        supplier of the rows, called before the method returns.
+     * @param x           define the x position of the following frame.
+     * @param y           define the y position of the following frame.
+     * @param numerator   define the numerator of the delay fraction.
+     * @param denominator define the denominator of the delay fraction.
+     * @param dispose     defines the type of frame area disposal to be done after rendering this frame.
+     * @param blend       specifies whether the frame is to be alpha blended into the current output buffer content,
+     *                    or whether it should completely replace its region in the output buffer.
+     * @throws IOException if an error occurs during writing.
+     * @throws IllegalStateException if the animation is closed or all frames declared for a stream are added.
+     * @see APNGCollector#addFrame(BufferedImage, int, int, short, short, byte, byte)
+     */
+    public void addFrame(int width,
+                         int height,
+                         RowSupplier rows,
+                         int x,
+                         int y,
+                         short numerator,
+                         short denominator,
+                         byte dispose,
+                         byte blend) throws IOException {
+        if (closed)
+            throw new IllegalStateException("The animation is already closed");
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        accept();
+        start();
 
-        chunks.write(Chunk.createFcTL(index++, frame.getWidth(), frame.getHeight(), x, y, numerator, denominator, dispose, blend));
-        chunks.write(Chunk.createFdAT(index++, in.readNBytes(in.available() - 12)));
-        ++frames;
+        if (optimizer != null) {
+            enqueue(optimizer.add(width, height, rows, x, y, numerator, denominator, dispose, blend, false));
+            return;
+        }
+
+        Pending added = new Pending(width, height, x, y, numerator, denominator, dispose, blend, null);
+        added.data = CompletableFuture.completedFuture(encode(rows, added));
+        enqueue(added);
+    }
+
+    /**
+     * Add frame in animation whose ARGB pixels are in the buffer, which may be a direct buffer.
+     * Rows are read from the buffer as they are encoded.
+     *
+     * @param pixels      non-premultiplied ARGB pixels, the upper left one at the position of the buffer;
+     *                    neither the position nor the content of the buffer is changed.
+     * @param stride      distance between rows in pixels, at least the width.
+     * @param width       frame width.
+     * @param height      frame height.
+     * @param x           define the x position of the following frame.
+     * @param y           define the y position of the following frame.
+     * @param numerator   define the numerator of the delay fraction.
+     * @param denominator define the denominator of the delay fraction.
+     * @param dispose     defines the type of frame area disposal to be done after rendering this frame.
+     * @param blend       specifies whether the frame is to be alpha blended into the current output buffer content,
+     *                    or whether it should completely replace its region in the output buffer.
+     * @throws IOException              if an error occurs during writing.
+     * @throws IllegalArgumentException if the rows do not fit into the buffer.
+     * @see APNGCollector#addFrame(int, int, RowSupplier, int, int, short, short, byte, byte)
+     */
+    public void addFrame(IntBuffer pixels,
+                         int stride,
+                         int width,
+                         int height,
+                         int x,
+                         int y,
+                         short numerator,
+                         short denominator,
+                         byte dispose,
+                         byte blend) throws IOException {
+        addFrame(width, height, PNGEncoder.rows(pixels, stride, width, height), x, y, numerator, denominator,
+                dispose, blend);
+    }
+
+    /**
+     * Add frame in animation whose pixels are in the buffer, which may be a direct buffer, laid out as image data
+     * of the pixel format: one byte per sample in the order R, G, B, A for {@code RGBA} and {@code RGB},
+     * gray and alpha for {@code GRAY_ALPHA} and {@code GRAY}. Rows are read from the buffer as they are encoded.
+     * The layout is independent of the format the frame is written in.
+     *
+     * @param pixels      pixels, the upper left one at the position of the buffer;
+     *                    neither the position nor the content of the buffer is changed.
+     * @param stride      distance between rows in bytes, at least the length of a row.
+     * @param format      layout of the pixels: {@code PixelFormat.of(type, 8)} of any type.
+     * @param width       frame width.
+     * @param height      frame height.
+     * @param x           define the x position of the following frame.
+     * @param y           define the y position of the following frame.
+     * @param numerator   define the numerator of the delay fraction.
+     * @param denominator define the denominator of the delay fraction.
+     * @param dispose     defines the type of frame area disposal to be done after rendering this frame.
+     * @param blend       specifies whether the frame is to be alpha blended into the current output buffer content,
+     *                    or whether it should completely replace its region in the output buffer.
+     * @throws IOException              if an error occurs during writing.
+     * @throws IllegalArgumentException if the format is indexed or not 8-bit, or the rows do not fit into the buffer.
+     * @see APNGCollector#addFrame(int, int, RowSupplier, int, int, short, short, byte, byte)
+     */
+    public void addFrame(ByteBuffer pixels,
+                         int stride,
+                         PixelFormat format,
+                         int width,
+                         int height,
+                         int x,
+                         int y,
+                         short numerator,
+                         short denominator,
+                         byte dispose,
+                         byte blend) throws IOException {
+        addFrame(width, height, PNGEncoder.rows(pixels, stride, format, width, height), x, y, numerator,
+                denominator, dispose, blend);
+    }
+
+    /**
+     * Add frame that covers the whole canvas in animation; the frame is blended with {@code APNG_BLEND_OP_SOURCE}
+     * and disposed with {@code APNG_DISPOSE_OP_NONE}. Intended for the optimized animation.
+     *
+     * @param frame       animation frame.
+     * @param numerator   define the numerator of the delay fraction.
+     * @param denominator define the denominator of the delay fraction.
+     * @throws IOException if an error occurs during writing or reading a frame.
+     * @see APNGCollector#setOptimize(boolean)
+     */
+    public void addFrame(BufferedImage frame, short numerator, short denominator) throws IOException {
+        addFrame(frame, 0, 0, numerator, denominator, APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+    }
+
+    /**
+     * Add frame in animation that is encoded on the executor; chunks are written in the order frames were added
+     * once the preceding frames are encoded. Frames added to the collector are either
+     * written during following calls of this method or {@link #addFrame}, or by {@link #build()} and {@link #close()}.
+     * If too many frames are waiting, the method blocks until the oldest one is written.
+     * The frame image must not be modified until the returned future completes.
+     * In the optimized animation the frame is added as by {@link #addFrame}, only the candidate regions
+     * are encoded on the executor.
+     *
+     * @param frame       animation frame.
+     * @param x           define the x position of the following frame.
+     * @param y           define the y position of the following frame.
+     * @param numerator   define the numerator of the delay fraction.
+     * @param denominator define the denominator of the delay fraction.
+     * @param dispose     defines the type of frame area disposal to be done after rendering this frame.
+     * @param blend       specifies whether the frame is to be alpha blended into the current output buffer content,
+     *                    or whether it should completely replace its region in the output buffer.
+     * @return future that completes when the frame is encoded.
+     * @throws IOException if an error occurs during writing of preceding frames.
+     * @throws IllegalStateException if the animation is closed or all frames declared for a stream are added.
+     * @see APNGCollector#addFrame(BufferedImage, int, int, short, short, byte, byte)
+     * @see APNGCollector#setExecutor(Executor)
+     */
+    public CompletableFuture<Void> addFrameAsync(BufferedImage frame,
+                                                 int x,
+                                                 int y,
+                                                 short numerator,
+                                                 short denominator,
+                                                 byte dispose,
+                                                 byte blend) throws IOException {
+        if (closed)
+            throw new IllegalStateException("The animation is already closed");
+        if (optimize) {
+            addFrame(frame, x, y, numerator, denominator, dispose, blend);
+            return CompletableFuture.completedFuture(null);
+        }
+        accept();
+        start();
+
+        Pending added = new Pending(frame.getWidth(), frame.getHeight(), x, y, numerator, denominator,
+                dispose, blend, null);
+        var data = CompletableFuture.supplyAsync(() -> encode(PNGEncoder.rows(frame), added), executor);
+        added.data = data;
+        enqueue(added);
+
+        while (pending.size() > limit)
+            write(pending.poll());
+
+        return data.thenAccept(d -> {});
+    }
+
+    /**
+     * Sets the colour type and bit depth of image data written for every frame. Must be set before the first frame
+     * is added. Pixels are converted to the format; colours missing from the palette of indexed colour format
+     * are replaced by the nearest ones or dithered.
+     *
+     * @param format pixel format, {@code PixelFormat.RGBA_8} by default.
+     * @throws IllegalStateException if a frame has already been added.
+     * @see PixelFormat#analyse(Iterable)
+     * @see PixelFormat#quantize(Iterable, int, boolean)
+     */
+    public void setFormat(PixelFormat format) {
+        if (format == null)
+            throw new NullPointerException("format");
+        checkNotStarted();
+        this.format = format;
+    }
+
+    /**
+     * Sets the executor that encodes frames added by {@link #addFrameAsync}.
+     *
+     * @param executor executor, {@code ForkJoinPool.commonPool()} by default.
+     *                 For example, {@code Executors.newVirtualThreadPerTaskExecutor()}.
+     */
+    public void setExecutor(Executor executor) {
+        if (executor == null)
+            throw new NullPointerException("executor");
+        this.executor = executor;
+    }
+
+    /**
+     * Turns on the optimization of frames. Must be set before the first frame is added.
+     * <p>
+     * Every frame is rendered as the animation would display it, then only the bounding box of changed pixels
+     * is written. The disposal of the previous frame and the blend operation of the frame are chosen
+     * by the smallest encoding among all possible combinations, and identical consecutive frames are merged
+     * by adding their delays. Frames can still be added with any position, disposal and blend, they only describe
+     * the rendered image. As the number of frames is not known in advance, merging is disabled for an animation
+     * written to a stream.
+     *
+     * @param optimize if true frames are optimized.
+     * @throws IllegalStateException if a frame has already been added.
+     */
+    public void setOptimize(boolean optimize) {
+        checkNotStarted();
+        this.optimize = optimize;
+    }
+
+    /**
+     * Sets the cache of encoded frames. A frame whose pixels and encoding settings are already in the cache
+     * is not encoded again, so adding the same image many times costs only its new chunk headers.
+     * Must be set before the first frame is added.
+     *
+     * @param cache cache shared by any number of collectors, or null to encode every frame (default).
+     * @throws IllegalStateException if a frame has already been added.
+     */
+    public void setCache(FrameCache cache) {
+        checkNotStarted();
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the receiver of the measurements of every written frame. It can be changed at any time
+     * and is called on the thread that adds frames, once the chunks of the frame are written.
+     *
+     * @param listener listener, or null to stop the measurements (default).
+     * @see APNGListener
+     */
+    public void setListener(APNGListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Turns on the compression of large frames in parallel. Filtered rows of a frame are split into blocks
+     * of 128 KiB that are compressed on the executor at the same time, each with the end of the preceding block
+     * as its dictionary, and joined into one zlib stream. The result is slightly larger than a stream compressed
+     * in one piece. Frames with less filtered image data than the threshold are compressed in one piece
+     * by the thread that encodes them. Must be set before the first frame is added.
+     *
+     * @param parallel  if true large frames are compressed in parallel.
+     * @param threshold minimum number of bytes of filtered image data, that is about {@code (4 * width + 1) * height}
+     *                  for RGBA; frames smaller than two blocks are never split.
+     * @throws IllegalStateException if a frame has already been added.
+     * @see APNGCollector#setExecutor(Executor)
+     * @see APNGCollector#DEFAULT_PARALLEL_THRESHOLD
+     */
+    public void setParallelCompression(boolean parallel, int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("Threshold must not be negative: " + threshold);
+        checkNotStarted();
+        this.blocks = parallel;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Turns on the tuning of the compression of every frame. Besides the filter and the compression level
+     * set on the collector, the frame is encoded with level 9 and each of the filters {@code PNG_FILTER_ADAPTIVE},
+     * {@code PNG_FILTER_NONE}, {@code PNG_FILTER_PAETH}, {@code PNG_FILTER_UP}, {@code PNG_FILTER_SUB}
+     * and {@code PNG_FILTER_AVERAGE}, with the default and the filtered {@code Deflater} strategies, in that order.
+     * Combinations are encoded on the executor at the same time and the smallest result that is ready within
+     * the budget is written. The settings of the collector are always encoded to the end, so no frame is
+     * larger than without tuning; once the budget of the animation is spent, only they are encoded.
+     * The chosen settings are reported to the listener. Must be set before the first frame is added.
+     * <p>
+     * The result depends on the speed of the machine unless the budget is long enough for every combination.
+     * In the optimized animation the candidate regions are compared with the settings of the collector and only
+     * the chosen region is tuned. Tuned frames are not compressed in parallel blocks.
+     *
+     * @param tune            if true frames are tuned.
+     * @param frameBudget     time that tuning of one frame may take.
+     * @param animationBudget time that tuning of all frames may take together, or null for no limit.
+     * @throws IllegalStateException if a frame has already been added.
+     * @see APNGCollector#setListener(APNGListener)
+     * @see FrameMetrics#getFilter()
+     */
+    public void setTuning(boolean tune, Duration frameBudget, Duration animationBudget) {
+        if (frameBudget == null)
+            throw new NullPointerException("frameBudget");
+        if (frameBudget.isNegative() || animationBudget != null && animationBudget.isNegative())
+            throw new IllegalArgumentException("Budget must not be negative");
+        checkNotStarted();
+        this.tune = tune;
+        this.frameBudget = saturatedNanos(frameBudget);
+        this.animationBudget = animationBudget == null ? Long.MAX_VALUE : saturatedNanos(animationBudget);
+    }
+
+    /**
+     * Sets the compression level of image data. Must be set before the first frame is added.
+     *
+     * @param level compression level from 0 (no compression) to 9 (best compression),
+     *              or {@code Deflater.DEFAULT_COMPRESSION}.
+     * @throws IllegalStateException if a frame has already been added.
+     * @see Deflater
+     */
+    public void setCompressionLevel(int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        checkNotStarted();
+        this.level = level;
+    }
+
+    /**
+     * Sets the filter that is applied to every row of image data before compression.
+     * Must be set before the first frame is added.
+     *
+     * @param filter filter type, {@code PNG_FILTER_NONE} by default, as {@code ImageIO} writes true colour images.
+     *  <pre>
+     *  {@summary
+     *  PNG_FILTER_NONE, PNG_FILTER_SUB, PNG_FILTER_UP, PNG_FILTER_AVERAGE, PNG_FILTER_PAETH
+     *    the same filter type is used for every row. Rows that are not filtered compress best for drawn images
+     *    with flat colours and repeated patterns, the usual content of animations.
+     *
+     *  PNG_FILTER_ADAPTIVE
+     *    the filter type is chosen for every row separately by the minimum sum of absolute differences;
+     *    usually smaller for photographs and gradients, but larger for drawn images.}
+     *  </pre>
+     * @throws IllegalStateException if a frame has already been added.
+     */
+    public void setFilter(byte filter) {
+        if (filter < PNG_FILTER_NONE || filter > PNG_FILTER_ADAPTIVE)
+            throw new IllegalArgumentException("Unknown filter: " + filter);
+        checkNotStarted();
+        this.filter = filter;
     }
 
     /**
      * @return APNG stream in byte array.
      * @throws IOException if an error occurs during writing.
+     * @throws IllegalStateException if the animation is written to a stream or a channel.
      */
     public byte[] build() throws IOException {
-        result.write(Chunk.createAcTL(frames, plays));
-        result.write(chunks.toByteArray());
+        if (result == null)
+            throw new IllegalStateException("The animation is written to a sink, use close() instead");
+        start();
+        if (optimizer != null)
+            enqueue(optimizer.finish());
+        drain(true);
+        end();
+
+        writer.writeAcTL(result, frames, plays);
+        chunks.writeTo(result);
         result.write(Chunk.IEND);
         return result.toByteArray();
     }
 
     /**
-     * Writes the BufferedImage to the byte array stream as a PNG, simplifies PNG stream.
-     * <pre>
-     * ┏━━━━━━┳━━━━━━┳━━━━━━┳━━━━━━┳━━━━━━┳━━━━━━┓
-     * ┃ IHDR ┃ PLTE ┃ gAMA ┃ .... ┃ IDAT ┃ IEND ┃
-     * ┗━━━━━━┻━━━━━━┻━━━━━━┻━━━━━━┻━━━━━━┻━━━━━━┛
-     *          ↓ ImageIO
-     * ┏━━━━━━┳━━━━━━┳━━━━━━┓
-     * ┃ IHDR ┃ IDAT ┃ IEND ┃
-     * ┗━━━━━━┻━━━━━━┻━━━━━━┛
-     * </pre>
+     * Completes the animation written to a stream or a channel: writes IEND chunk and, for a channel,
+     * writes the number of frames in the acTL chunk in place. The sink itself is not closed.
+     * Does nothing for an animation collected in memory.
      *
-     * @param frame image to be recorded.
-     * @return PNG stream in {@code ByteArrayInputStream}.
+     * @throws IOException if an error occurs during writing or fewer frames were added
+     *                     than declared for a stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (result != null || closed) {
+            end();
+            return;
+        }
+        start();
+        if (optimizer != null)
+            enqueue(optimizer.finish());
+        drain(true);
+        end();
+        closed = true;
+
+        out.write(Chunk.IEND);
+        out.flush();
+
+        if (channel != null) {
+            long end = channel.position();
+            channel.position(acTLPosition);
+            ByteBuffer acTL = ByteBuffer.allocate(20);
+            writer.writeAcTL(acTL, frames, plays);
+            acTL.flip();
+            while (acTL.hasRemaining())
+                channel.write(acTL);
+            channel.position(end);
+        } else if (frames < declared)
+            throw new IOException("Declared " + declared + " frames, but only " + frames + " were added");
+    }
+
+    /**
+     * Counts the added frame. The acTL chunk of a stream is already written, so a frame beyond
+     * the declared number is rejected before anything of it is encoded or written.
      */
-    private ByteArrayInputStream createPNGStream(BufferedImage frame) throws IOException {
-        BufferedImage n = new BufferedImage(frame.getWidth(), frame.getHeight(), 2);
-        n.getGraphics().drawImage(frame, 0, 0, null);
+    private void accept() {
+        if (declared > 0 && accepted >= declared)
+            throw new IllegalStateException("All " + declared + " declared frames are already added");
+        ++accepted;
+    }
+
+    /**
+     * Writes the header and the static image before the first frame.
+     */
+    private void start() throws IOException {
+        if (sImg == null)
+            return;
+
+        RowSupplier image = sImg;
+        sImg = null;
+        writeHeader(first.width, first.height);
+        if (blocks)
+            parallel = new ParallelDeflater(level, threshold, r -> executor.execute(r));
+
+        if (tune)
+            tuner = new FrameTuner(level, filter, format, frameBudget, animationBudget, r -> executor.execute(r));
+
+        if (optimize)
+            optimizer = new FrameOptimizer(first.width, first.height, result != null || channel != null,
+                    format.hasAlpha(),
+                    (pixels, offset, scan, width, height, frame) ->
+                            encode(pixels, offset, scan, width, height, frame, false),
+                    tuner == null ? null : (pixels, offset, scan, width, height, frame) ->
+                            encode(pixels, offset, scan, width, height, frame, true),
+                    r -> executor.execute(r));
+
+        if (optimizer != null && first.control)
+            enqueue(optimizer.add(first.width, first.height, image, 0, 0,
+                    first.numerator, first.denominator, first.dispose, first.blend, true));
+        else {
+            first.data = CompletableFuture.completedFuture(encode(image, first));
+            enqueue(first);
+        }
+        first = null;
+    }
+
+    private static long saturatedNanos(Duration duration) {
+        try {
+            return duration.toNanos();
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private void checkNotStarted() {
+        if (sImg == null)
+            throw new IllegalStateException("Settings must be changed before the first frame is added");
+    }
+
+    /**
+     * Encodes the rows of the frame and records the time of encoding in the frame.
+     *
+     * @param rows  rows of the frame image.
+     * @param frame frame.
+     * @return compressed image data.
+     */
+    private byte[] encode(RowSupplier rows, Pending frame) {
+        final long start = System.nanoTime();
+        byte[] data = encode(frame.width, frame.height, rows, frame);
+        frame.encode = System.nanoTime() - start;
+        return data;
+    }
+
+    /**
+     * Encodes the rows with one of the pooled encoders, so that every thread uses its own {@code Deflater}.
+     * With the cache or the tuning the pixels are read once to be hashed and encoded.
+     *
+     * @param width  image width.
+     * @param height image height.
+     * @param rows   rows of the image.
+     * @param frame  frame that the settings of the encoding are recorded in.
+     * @return compressed image data.
+     */
+    private byte[] encode(int width, int height, RowSupplier rows, Pending frame) {
+        if (cache != null || tuner != null) {
+            int[] pixels = new int[width * height],
+                  row = new int[width];
+            for (int y = 0; y < height; ++y) {
+                rows.getRow(y, row);
+                System.arraycopy(row, 0, pixels, y * width, width);
+            }
+            return encode(pixels, 0, width, width, height, frame, tuner != null);
+        }
+
+        PNGEncoder encoder = encoder();
+        try {
+            return encoder.encode(width, height, rows);
+        } finally {
+            encoders.offer(encoder);
+            frame.setting(filter, level, Deflater.DEFAULT_STRATEGY);
+        }
+    }
+
+    /**
+     * @param frame frame that the settings of the encoding are recorded in.
+     * @param tune  if true the frame is encoded by the tuner.
+     * @see PNGEncoder#encode(int[], int, int, int, int)
+     */
+    private byte[] encode(int[] pixels, int offset, int scan, int width, int height, Pending frame, boolean tune) {
+        FrameCache.Key key = null;
+        if (cache != null) {
+            key = FrameCache.key(pixels, offset, scan, width, height, level, filter, format, tune);
+            byte[] data = cache.get(key);
+            if (data != null) {
+                // The settings chosen by the tuner are not kept in the cache.
+                if (tune)
+                    frame.setting((byte) -1, 0, 0);
+                else
+                    frame.setting(filter, level, Deflater.DEFAULT_STRATEGY);
+                return data;
+            }
+        }
+
+        byte[] data;
+        if (tune) {
+            FrameTuner.Result result = tuner.encode(pixels, offset, scan, width, height);
+            data = result.data;
+            frame.setting(result.filter, result.level, result.strategy);
+        } else {
+            PNGEncoder encoder = encoder();
+            try {
+                data = encoder.encode(pixels, offset, scan, width, height);
+            } finally {
+                encoders.offer(encoder);
+            }
+            frame.setting(filter, level, Deflater.DEFAULT_STRATEGY);
+        }
+        if (key != null)
+            cache.put(key, data);
+        return data;
+    }
+
+    /**
+     * @return pooled encoder, or a new one if all of them are in use; it must be returned to the pool.
+     */
+    private PNGEncoder encoder() {
+        PNGEncoder encoder = encoders.poll();
+        return encoder != null ? encoder : new PNGEncoder(level, filter, format, parallel);
+    }
+
+    private void end() {
+        for (PNGEncoder encoder; (encoder = encoders.poll()) != null; )
+            encoder.end();
+        if (parallel != null)
+            parallel.end();
+        if (tuner != null)
+            tuner.end();
+    }
+
+    /**
+     * Adds the frame to the queue of frames to be written.
+     *
+     * @param frame frame or null.
+     */
+    private void enqueue(Pending frame) throws IOException {
+        if (frame == null)
+            return;
+        if (frame.control)
+            ++frames;
+        pending.add(frame);
+        drain(false);
+    }
+
+    /**
+     * Writes the frames that are already encoded, keeping the order in which they were added.
+     *
+     * @param all if true waits for all frames to be encoded.
+     */
+    private void drain(boolean all) throws IOException {
+        while (!pending.isEmpty() && (all || pending.peek().data.isDone()))
+            write(pending.poll());
+    }
+
+    /**
+     * Writes fcTL and fdAT (or IDAT) chunks of the frame; sequence numbers are assigned here.
+     *
+     * @param frame encoded frame.
+     */
+    private void write(Pending frame) throws IOException {
+        final long start = System.nanoTime();
+        // The first event class initializes the event system, which takes long, so no event is made without it.
+        FrameEncodeEvent event = FlightRecorder.isInitialized() ? new FrameEncodeEvent() : null;
+        if (event != null)
+            event.begin();
+        byte[] data;
+        try {
+            data = frame.data.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (e.getCause() instanceof Error cause)
+                throw cause;
+            throw new IOException(e.getCause());
+        }
+
+        if (frame.control)
+            writer.writeFcTL(out, index++, frame.width, frame.height, frame.x, frame.y,
+                    frame.numerator, frame.denominator, frame.dispose, frame.blend);
+        if (frame.idat)
+            writer.writeChunk(out, Chunk.IDAT_TYPE, data, 0, data.length);
+        else
+            writer.writeFdAT(out, index++, data, 0, data.length);
+
+        if (listener != null || event != null && event.isEnabled())
+            report(frame, data, event, System.nanoTime() - start);
+        ++written;
+    }
+
+    /**
+     * Passes the measurements of the written frame to the listener and commits the event if it is enabled.
+     *
+     * @param event event of the frame or null.
+     * @param write nanoseconds of the write stage.
+     */
+    private void report(Pending frame, byte[] data, FrameEncodeEvent event, long write) {
+        final long raw = ((long) frame.width * format.bitsPerPixel() + 7) / 8 + 1;
+        FrameMetrics metrics = new FrameMetrics(written, frame.width, frame.height,
+                new long[]{frame.optimize, frame.encode, write, 0, 0}, raw * frame.height, data.length,
+                result != null ? result.size() + chunks.size() : 0, frame.filter, frame.level, frame.strategy);
+        if (event != null && event.shouldCommit()) {
+            event.set(metrics);
+            event.commit();
+        }
+        if (listener != null)
+            listener.frameEncoded(metrics);
+    }
+
+    /**
+     * Writes PNG signature and IHDR chunk, PLTE and tRNS chunks of indexed colour, followed by acTL chunk.
+     * For a channel the acTL chunk is a placeholder that is overwritten on {@link #close()}.
+     *
+     * @param width  image width.
+     * @param height image height.
+     */
+    private void writeHeader(int width, int height) throws IOException {
+        OutputStream target = result != null ? result : out;
+        target.write(Chunk.SIGNATURE);
+        writer.writeIHDR(target, width, height, format.getBitDepth(), format.getColorType());
+        if (format.getColorType() == PixelFormat.INDEXED) {
+            writer.writePLTE(target, format.palette());
+            writer.writeTRNS(target, format.palette());
+        }
+        if (result != null)
+            return;
+
+        if (channel != null)
+            acTLPosition = channel.position();
+        writer.writeAcTL(out, Math.max(declared, 0), plays);
+    }
+
+    /**
+     * Frame parameters with image data that may still be encoding.
+     */
+    static final class Pending {
+        final int width, height, x, y;
+        final byte blend;
+        short numerator, denominator;
+        byte dispose;
+        CompletableFuture<byte[]> data;
+        /**
+         * If false the frame is the static image that is not part of the animation and has no fcTL chunk.
+         */
+        boolean control = true;
+        /**
+         * If true the frame is the static image written in IDAT chunk.
+         */
+        boolean idat;
+        /**
+         * Nanoseconds spent in the optimization and the encoding of the frame.
+         */
+        long optimize, encode;
+        /**
+         * Settings the image data was encoded with; the filter is -1 if they are not known.
+         */
+        byte filter = -1;
+        int level, strategy;
+
+        Pending(int width, int height, int x, int y, short numerator, short denominator, byte dispose, byte blend,
+                CompletableFuture<byte[]> data) {
+            this.width = width;
+            this.height = height;
+            this.x = x;
+            this.y = y;
+            this.numerator = numerator;
+            this.denominator = denominator;
+            this.dispose = dispose;
+            this.blend = blend;
+            this.data = data;
+        }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ImageIO.write(n, "PNG", out);
-        return new ByteArrayInputStream(out.toByteArray());
+        void setting(byte filter, int level, int strategy) {
+            this.filter = filter;
+            this.level = level;
+            this.strategy = strategy;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,495 @@
+package com.librian.lib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+import static com.librian.lib.APNGCollector.*;
+import static com.librian.lib.Chunk.*;
+
+/**
+ * A class to edit an animated PNG on the level of chunks: trim, concatenate, reverse, change delays and the number
+ * of plays without decoding and encoding image data.
+ * <p>
+ * Only fcTL and acTL chunks are rewritten, sequence numbers are renumbered and the image data of the frame that
+ * becomes or stops being the first frame is moved between IDAT and fdAT chunks. A frame is decoded and encoded again
+ * only if the canvas it is rendered onto differs from the original one: when the frame no longer follows the frame
+ * it followed in the source animation and does not replace the whole canvas by itself. Such frame is written as
+ * the whole canvas, the way it was displayed in the source animation.
+ * <p>
+ * Chunks are kept as slices of the source data, so the data must not be changed while the editor is used.
+ * Ancillary chunks before the image data and after it are kept from the first source;
+ * the ones between frames are dropped.
+ */
+public class APNGEditor {
+    private final Source source;
+    private final List<Item> items = new ArrayList<>();
+    private int plays;
+
+    /**
+     * Constructs an instance with APNG data in the buffer. A PNG without acTL chunk is read
+     * as an animation of one frame, the static image.
+     *
+     * @param buffer APNG data from the position to the limit of the buffer.
+     * @throws IOException if the data is not PNG data.
+     */
+    public APNGEditor(ByteBuffer buffer) throws IOException {
+        source = new Source(buffer.slice());
+        plays = source.plays;
+        for (int i = 0; i < source.frames.size(); ++i)
+            items.add(new Item(source, i));
+    }
+
+    /**
+     * Constructs an instance with the file, which is mapped into memory.
+     *
+     * @param path APNG file.
+     * @throws IOException if an error occurs during mapping or the file is not a PNG file.
+     */
+    public APNGEditor(Path path) throws IOException {
+        this(APNGReader.map(path));
+    }
+
+    /**
+     * Constructs an instance with APNG stream, which is read to the end.
+     *
+     * @param input APNG stream.
+     * @throws IOException if an error occurs during reading or the stream is not a PNG stream.
+     */
+    public APNGEditor(InputStream input) throws IOException {
+        this(ByteBuffer.wrap(input.readAllBytes()));
+    }
+
+    /**
+     * @return number of frames of the animation.
+     */
+    public int getFrameCount() {
+        return items.size();
+    }
+
+    /**
+     * @return number of times to loop the animation, 0 for infinite looping.
+     */
+    public int getPlays() {
+        return plays;
+    }
+
+    /**
+     * @param plays number of times to loop the animation, 0 for infinite looping.
+     */
+    public void setPlays(int plays) {
+        if (plays < 0)
+            throw new IllegalArgumentException("Number of plays is negative: " + plays);
+        this.plays = plays;
+    }
+
+    /**
+     * Changes the delay of the frame.
+     *
+     * @param n           frame index.
+     * @param numerator   numerator of the delay fraction.
+     * @param denominator denominator of the delay fraction; 0 means 100.
+     * @throws IndexOutOfBoundsException if there is no such frame.
+     */
+    public void setDelay(int n, short numerator, short denominator) {
+        Item item = items.get(n);
+        item.numerator = numerator;
+        item.denominator = denominator;
+    }
+
+    /**
+     * Changes the delay of every frame.
+     *
+     * @param numerator   numerator of the delay fraction.
+     * @param denominator denominator of the delay fraction; 0 means 100.
+     */
+    public void setDelays(short numerator, short denominator) {
+        for (Item item : items) {
+            item.numerator = numerator;
+            item.denominator = denominator;
+        }
+    }
+
+    /**
+     * Keeps only the frames from {@code from}, inclusive, to {@code to}, exclusive.
+     *
+     * @param from index of the first frame to keep.
+     * @param to   index after the last frame to keep.
+     * @throws IndexOutOfBoundsException if the range is out of the frames.
+     * @throws IllegalArgumentException  if the range is empty.
+     */
+    public void trim(int from, int to) {
+        Objects.checkFromToIndex(from, to, items.size());
+        if (from == to)
+            throw new IllegalArgumentException("An animation must have at least one frame");
+        items.subList(to, items.size()).clear();
+        items.subList(0, from).clear();
+    }
+
+    /**
+     * Appends the frames of the other animation, with their current delays.
+     *
+     * @param other animation with the same IHDR, PLTE and tRNS chunks; may be this animation.
+     * @throws IllegalArgumentException if the animations have different image headers or palettes.
+     */
+    public void append(APNGEditor other) {
+        if (!source.ihdr.equals(other.source.ihdr) || !Objects.equals(source.palette, other.source.palette)
+                || !Objects.equals(source.transparency, other.source.transparency))
+            throw new IllegalArgumentException("Animations have different image headers or palettes");
+
+        for (Item item : List.copyOf(other.items)) {
+            Item copy = new Item(item.source, item.index);
+            copy.numerator = item.numerator;
+            copy.denominator = item.denominator;
+            items.add(copy);
+        }
+    }
+
+    /**
+     * Reverses the order of frames.
+     */
+    public void reverse() {
+        Collections.reverse(items);
+    }
+
+    /**
+     * @return APNG stream in byte array.
+     * @throws IOException if a frame that has to be encoded again cannot be decoded,
+     *                     or cannot be written in the pixel format of the animation without changes.
+     */
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the animation.
+     *
+     * @param out stream the animation is written to.
+     * @throws IOException if an error occurs during writing, a frame that has to be encoded again cannot be decoded,
+     *                     or cannot be written in the pixel format of the animation without changes.
+     */
+    public void write(OutputStream out) throws IOException {
+        final boolean still = source.still != null;
+        final byte[][] encoded = plan(still);
+        final ChunkWriter writer = new ChunkWriter();
+
+        out.write(SIGNATURE);
+        writer.writeChunk(out, IHDR_TYPE, source.ihdr);
+        for (ByteBuffer chunk : source.header)
+            writer.copy(out, chunk);
+        writer.writeAcTL(out, items.size(), plays);
+        if (still)
+            for (ByteBuffer data : source.still.data)
+                writer.writeChunk(out, IDAT_TYPE, data);
+
+        int sequence = 0;
+        for (int k = 0; k < items.size(); ++k) {
+            final Item item = items.get(k);
+            final Frame frame = item.frame();
+            final boolean idat = !still && k == 0;
+
+            if (encoded[k] != null) {
+                // The whole canvas as it was displayed; only the disposal to nothing keeps the next frames intact.
+                writer.writeFcTL(out, sequence++, source.width, source.height, 0, 0,
+                        item.numerator, item.denominator, APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+                if (idat)
+                    writer.writeChunk(out, IDAT_TYPE, encoded[k], 0, encoded[k].length);
+                else
+                    writer.writeFdAT(out, sequence++, encoded[k], 0, encoded[k].length);
+                continue;
+            }
+
+            // Over the fully transparent canvas of the first frame both blend operations are the same.
+            final byte blend = item.index == 0 && item.full() ? APNG_BLEND_OP_SOURCE : frame.blend;
+            writer.writeFcTL(out, sequence++, frame.width, frame.height, frame.x, frame.y,
+                    item.numerator, item.denominator, frame.dispose, blend);
+            for (ByteBuffer data : item.source.frames.get(item.index).data)
+                if (idat)
+                    writer.writeChunk(out, IDAT_TYPE, data);
+                else
+                    writer.writeFdAT(out, sequence++, data);
+        }
+
+        for (ByteBuffer chunk : source.trailer)
+            writer.copy(out, chunk);
+        out.write(IEND);
+        out.flush();
+    }
+
+    /**
+     * Finds the frames that have to be encoded again and encodes them.
+     * <p>
+     * A frame is written as it is if it does not depend on the canvas, or if the canvas after the disposal of the
+     * previous frame is the same as in the source animation: the previous frame is the frame that preceded it
+     * in the source and was written as it is, or encoded again and disposed with {@code APNG_DISPOSE_OP_NONE}.
+     *
+     * @param still if true the static image is not part of the animation, otherwise the first frame must cover
+     *              the whole canvas.
+     * @return image data of every frame that is encoded again, null for other frames.
+     */
+    private byte[][] plan(boolean still) throws IOException {
+        if (items.isEmpty())
+            throw new IllegalStateException("There are no frames");
+
+        byte[][] encoded = new byte[items.size()][];
+        List<List<Integer>> requests = new ArrayList<>();
+        List<Source> sources = new ArrayList<>();
+        boolean faithful = false;
+        Item previous = null;
+
+        for (int k = 0; k < items.size(); ++k) {
+            final Item item = items.get(k);
+            final Frame frame = item.frame();
+            final boolean context = k == 0
+                    ? item.index == 0
+                    : faithful && previous.source == item.source && previous.index == item.index - 1;
+            final boolean key = item.full() && (item.index == 0 || frame.blend == APNG_BLEND_OP_SOURCE)
+                    && frame.dispose != APNG_DISPOSE_OP_PREVIOUS;
+
+            if ((context || key) && (k > 0 || still || item.full()))
+                faithful = true;
+            else {
+                int s = sources.indexOf(item.source);
+                if (s < 0) {
+                    sources.add(item.source);
+                    requests.add(new ArrayList<>());
+                    s = sources.size() - 1;
+                }
+                requests.get(s).add(k);
+                faithful = frame.dispose == APNG_DISPOSE_OP_NONE;
+            }
+            previous = item;
+        }
+
+        for (int s = 0; s < sources.size(); ++s)
+            sources.get(s).encode(requests.get(s), items, encoded);
+        return encoded;
+    }
+
+    /**
+     * Frame of the edited animation: a frame of a source with its delay.
+     */
+    private static final class Item {
+        final Source source;
+        final int index;
+        short numerator, denominator;
+
+        Item(Source source, int index) {
+            this.source = source;
+            this.index = index;
+            this.numerator = frame().numerator;
+            this.denominator = frame().denominator;
+        }
+
+        Frame frame() {
+            return source.frames.get(index).frame;
+        }
+
+        boolean full() {
+            Frame frame = frame();
+            return frame.x == 0 && frame.y == 0 && frame.width == source.width && frame.height == source.height;
+        }
+    }
+
+    /**
+     * Frame parameters and slices of its image data.
+     */
+    private static final class Raw {
+        final Frame frame;
+        final List<ByteBuffer> data = new ArrayList<>();
+
+        Raw(Frame frame) {
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * Chunks of a source animation.
+     */
+    private static final class Source {
+        final ByteBuffer ihdr;
+        final int width, height;
+        final List<ByteBuffer> header = new ArrayList<>(), trailer = new ArrayList<>();
+        final List<Raw> frames = new ArrayList<>();
+        ByteBuffer palette, transparency;
+        Raw still;
+        int plays;
+
+        Source(ByteBuffer data) throws IOException {
+            if (data.remaining() < 33 || !data.slice(0, 8).equals(ByteBuffer.wrap(SIGNATURE)))
+                throw new IOException("Not a PNG stream");
+            if (data.getInt(8) != 13 || data.getInt(12) != IHDR_TYPE)
+                throw new IOException("IHDR chunk is missing");
+            ihdr = data.slice(16, 13);
+            width = ihdr.getInt(0);
+            height = ihdr.getInt(4);
+
+            boolean animated = false, image = false;
+            List<ByteBuffer> between = new ArrayList<>();
+            Raw raw = null;
+            for (int position = 33; ; ) {
+                if (data.limit() - position < 12)
+                    throw new EOFException("Unexpected end of APNG data");
+                final int length = data.getInt(position),
+                          type = data.getInt(position + 4);
+                if (length < 0 || data.limit() - position - 12 < length)
+                    throw new IOException("Invalid chunk length: " + length);
+                final ByteBuffer chunk = data.slice(position, length + 12),
+                                 content = data.slice(position + 8, length);
+                position += length + 12;
+
+                switch (type) {
+                    case IEND_TYPE -> {
+                        trailer.addAll(between);
+                        if (!animated && still != null) {
+                            frames.add(still);
+                            still = null;
+                        }
+                        if (frames.isEmpty())
+                            throw new IOException("There are no frames");
+                        return;
+                    }
+                    case ACTL_TYPE -> {
+                        animated = true;
+                        plays = content.getInt(4);
+                    }
+                    case FCTL_TYPE -> {
+                        image = true;
+                        between.clear();
+                        Frame frame = new Frame();
+                        Chunk.readFcTL(content.position(4), frame);
+                        raw = new Raw(frame);
+                        frames.add(raw);
+                    }
+                    case IDAT_TYPE -> {
+                        image = true;
+                        between.clear();
+                        if (raw != null)
+                            raw.data.add(content);
+                        else {
+                            if (still == null) {
+                                Frame frame = new Frame();
+                                frame.width = width;
+                                frame.height = height;
+                                frame.blend = APNG_BLEND_OP_SOURCE;
+                                still = new Raw(frame);
+                            }
+                            still.data.add(content);
+                        }
+                    }
+                    case FDAT_TYPE -> {
+                        if (raw == null)
+                            throw new IOException("fdAT chunk without fcTL chunk");
+                        between.clear();
+                        raw.data.add(content.slice(4, length - 4));
+                    }
+                    default -> {
+                        if (type == PLTE_TYPE)
+                            palette = content;
+                        else if (type == TRNS_TYPE)
+                            transparency = content;
+                        if (!image)
+                            header.add(chunk);
+                        else
+                            between.add(chunk);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Renders the source animation up to the last requested frame and encodes the whole canvas
+         * for every requested frame.
+         *
+         * @param requests indices of edited frames of this source, in ascending order.
+         * @param items    frames of the edited animation.
+         * @param encoded  encoded image data of the edited frames.
+         */
+        void encode(List<Integer> requests, List<Item> items, byte[][] encoded) throws IOException {
+            final PixelFormat format = format();
+            final PNGDecoder decoder = new PNGDecoder();
+            final PNGEncoder encoder = new PNGEncoder(Deflater.DEFAULT_COMPRESSION, PNG_FILTER_NONE,
+                    format == null ? PixelFormat.RGBA_8 : format);
+            final Compositor compositor = new Compositor(width, height);
+            int[] pixels = new int[0];
+
+            List<Integer> order = new ArrayList<>(requests);
+            order.sort((a, b) -> Integer.compare(items.get(a).index, items.get(b).index));
+            try {
+                decoder.header(ihdr.duplicate());
+                if (palette != null)
+                    decoder.palette(palette.duplicate());
+                if (transparency != null)
+                    decoder.transparency(transparency.duplicate());
+
+                int rendered = -1;
+                for (int k : order) {
+                    final int index = items.get(k).index;
+                    for (; rendered < index; ) {
+                        Raw raw = frames.get(++rendered);
+                        Frame frame = raw.frame;
+                        if (pixels.length < frame.width * frame.height)
+                            pixels = new int[frame.width * frame.height];
+
+                        decoder.begin(frame.width, frame.height);
+                        for (ByteBuffer data : raw.data)
+                            decoder.feed(data.duplicate());
+                        decoder.finish(pixels);
+                        compositor.render(pixels, 0, frame.width, frame.x, frame.y, frame.width, frame.height,
+                                frame.dispose, frame.blend);
+                    }
+
+                    for (int p : compositor.canvas)
+                        if (format == null || !format.contains(p))
+                            throw new IOException("Frame " + index + " cannot be encoded again without changes in "
+                                    + (format == null ? "the pixel format of IHDR chunk" : format));
+                    encoded[k] = encoder.encode(compositor.canvas, 0, width, width, height);
+                }
+            } finally {
+                decoder.end();
+                encoder.end();
+            }
+        }
+
+        /**
+         * @return format of IHDR chunk, or null if image data of the format cannot be encoded.
+         */
+        private PixelFormat format() {
+            final byte depth = ihdr.get(8),
+                       type = ihdr.get(9);
+            if (ihdr.get(12) != 0)
+                return null;
+
+            if (type == PixelFormat.INDEXED) {
+                if (palette == null)
+                    return null;
+                int[] colors = new int[palette.remaining() / 3];
+                for (int i = 0; i < colors.length; ++i) {
+                    int alpha = transparency != null && i < transparency.remaining() ? transparency.get(i) & 0xFF : 255;
+                    colors[i] = alpha << 24 | (palette.get(i * 3) & 0xFF) << 16
+                            | (palette.get(i * 3 + 1) & 0xFF) << 8 | palette.get(i * 3 + 2) & 0xFF;
+                }
+                return PixelFormat.palette(colors, depth);
+            }
+            // A transparent colour key cannot be written by the encoder.
+            if (transparency != null)
+                return null;
+            try {
+                return PixelFormat.of(type, depth);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static com.librian.lib.APNGCollector.APNG_BLEND_OP_SOURCE;
+import static com.librian.lib.APNGCollector.APNG_DISPOSE_OP_PREVIOUS;
+import static com.librian.lib.Chunk.*;
+
+/**
+ * A class to read frames of an animated PNG in any order, as they are displayed in the animation.
+ * <p>
+ * The constructor makes one pass over the stream and records the parameters of every frame and the positions of its
+ * image data, without decoding it. A frame is rendered by replaying the frames from the nearest keyframe:
+ * a frame that replaces the whole canvas with {@code APNG_BLEND_OP_SOURCE} and is not disposed with
+ * {@code APNG_DISPOSE_OP_PREVIOUS}, or a frame whose canvas was saved.
+ * The canvas is saved every {@code interval} frames when the animation is rendered past them,
+ * so a seek decodes at most {@code interval} frames; reading frames in order decodes every frame once.
+ * <p>
+ * An instance is not thread-safe.
+ *
+ * @see APNGReader
+ */
+public class APNGIndexedReader implements Closeable {
+    /**
+     * Number of frames between saved canvases used by default.
+     */
+    public static final int DEFAULT_INTERVAL = 16;
+
+    private final SeekableByteChannel channel;
+    private final PNGDecoder decoder = new PNGDecoder();
+    private final int width, height, plays, interval;
+    private final Entry[] entries;
+    private final long[] starts;
+    private final int[][] snapshots;
+    private final Compositor compositor;
+    private ByteBuffer buffer = ByteBuffer.allocate(8192);
+    private int[] pixels = new int[0];
+    private int current = -1;
+
+    /**
+     * Constructs an instance with the channel, saving the canvas every {@code DEFAULT_INTERVAL} frames.
+     *
+     * @param channel channel with APNG stream that starts at offset 0; the position of the channel is ignored.
+     * @throws IOException if an error occurs during reading or the stream is not a PNG stream.
+     * @see APNGIndexedReader#APNGIndexedReader(SeekableByteChannel, int)
+     */
+    public APNGIndexedReader(SeekableByteChannel channel) throws IOException {
+        this(channel, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructs an instance with the channel and reads the positions of all frames.
+     * A PNG stream without acTL chunk is read as an animation of the static image.
+     * <p>
+     * Unlike {@link APNGReader#APNGReader(java.nio.channels.FileChannel)}, which starts at the current position,
+     * the stream must start at offset 0 of the channel: the position of the channel is ignored and every chunk is
+     * read at its absolute offset.
+     *
+     * @param channel  channel with APNG stream that starts at offset 0; the position of the channel is ignored.
+     * @param interval number of frames between saved canvases; every saved canvas takes
+     *                 {@code 4 * width * height} bytes.
+     * @throws IOException if an error occurs during reading or the stream is not a PNG stream.
+     */
+    public APNGIndexedReader(SeekableByteChannel channel, int interval) throws IOException {
+        if (interval < 1)
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        this.channel = channel;
+        this.interval = interval;
+
+        // The decoder holds native memory of its Inflater, which is released if the stream cannot be indexed.
+        try {
+            if (!read(0, 8).equals(ByteBuffer.wrap(SIGNATURE)))
+                throw new IOException("Not a PNG stream");
+            ByteBuffer header = read(8, 25);
+            if (header.getInt(0) != 13 || header.getInt(4) != IHDR_TYPE)
+                throw new IOException("IHDR chunk is missing");
+            width = header.getInt(8);
+            height = header.getInt(12);
+            decoder.header(header.slice(8, 13));
+
+            List<Entry> list = new ArrayList<>();
+            Entry entry = null, still = null;
+            boolean animated = false;
+            int plays = 0;
+
+            chunks:
+            for (long position = 33; ; ) {
+                ByteBuffer chunk = read(position, 8);
+                final int length = chunk.getInt(0);
+                final int type = chunk.getInt(4);
+                if (length < 0)
+                    throw new IOException("Invalid chunk length: " + length);
+                final long data = position + 8;
+                position = data + length + 4;
+
+                switch (type) {
+                    case IEND_TYPE -> {
+                        break chunks;
+                    }
+                    case ACTL_TYPE -> {
+                        animated = true;
+                        plays = read(data, 8).getInt(4);
+                    }
+                    case FCTL_TYPE -> {
+                        Frame frame = new Frame();
+                        Chunk.readFcTL(read(data + 4, length - 4), frame);
+                        frame.animated = true;
+                        entry = new Entry(frame);
+                        list.add(entry);
+                    }
+                    case PLTE_TYPE -> decoder.palette(read(data, length));
+                    case TRNS_TYPE -> decoder.transparency(read(data, length));
+                    case IDAT_TYPE -> {
+                        if (entry == null) {
+                            if (still == null) {
+                                Frame frame = new Frame();
+                                frame.width = width;
+                                frame.height = height;
+                                frame.blend = APNG_BLEND_OP_SOURCE;
+                                still = new Entry(frame);
+                            }
+                            still.add(data, length);
+                        } else
+                            entry.add(data, length);
+                    }
+                    case FDAT_TYPE -> {
+                        if (entry == null)
+                            throw new IOException("fdAT chunk without fcTL chunk");
+                        entry.add(data + 4, length - 4);
+                    }
+                }
+            }
+
+            if (!animated && still != null)
+                list.add(still);
+            this.plays = plays;
+            this.entries = list.toArray(new Entry[0]);
+            this.starts = new long[entries.length + 1];
+            for (int i = 0; i < entries.length; ++i)
+                starts[i + 1] = starts[i] + entries[i].frame.delay();
+            this.snapshots = new int[(entries.length + interval - 1) / interval][];
+            this.compositor = new Compositor(width, height);
+        } catch (IOException | RuntimeException e) {
+            decoder.end();
+            throw e;
+        }
+    }
+
+    /**
+     * @return canvas width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return canvas height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of frames of the animation, the static image is counted only if it is part of the animation.
+     */
+    public int getFrameCount() {
+        return entries.length;
+    }
+
+    /**
+     * @return number of times to loop the animation, 0 for infinite looping.
+     */
+    public int getPlays() {
+        return plays;
+    }
+
+    /**
+     * @return duration of one play of the animation.
+     */
+    public Duration getDuration() {
+        return Duration.ofNanos(starts[entries.length]);
+    }
+
+    /**
+     * @param n frame index.
+     * @return time from the start of the animation to the frame.
+     * @throws IndexOutOfBoundsException if there is no such frame.
+     */
+    public Duration getTime(int n) {
+        return Duration.ofNanos(starts[Objects.checkIndex(n, entries.length)]);
+    }
+
+    /**
+     * Finds the frame displayed at the time; the animation loops as many times as acTL chunk says
+     * and then stays on the last frame.
+     *
+     * @param time time from the start of the animation.
+     * @return frame index.
+     * @throws IllegalArgumentException if the time is negative.
+     */
+    public int indexAt(Duration time) {
+        if (time.isNegative())
+            throw new IllegalArgumentException("Time is negative: " + time);
+        if (entries.length == 0)
+            throw new IndexOutOfBoundsException("There are no frames");
+
+        long t;
+        try {
+            t = time.toNanos();
+        } catch (ArithmeticException e) {
+            t = Long.MAX_VALUE;
+        }
+        final long total = starts[entries.length];
+        if (total > 0) {
+            if (plays != 0 && t / total >= plays)
+                return entries.length - 1;
+            t %= total;
+        }
+
+        int i = Arrays.binarySearch(starts, 0, entries.length, t);
+        if (i < 0)
+            return -i - 2;
+        // Frames with zero delay start at the same time, the last of them is displayed.
+        while (i + 1 < entries.length && starts[i + 1] == t)
+            ++i;
+        return i;
+    }
+
+    /**
+     * @param n frame index.
+     * @return new image of the canvas size with the frame as it is displayed in the animation.
+     * @throws IOException               if an error occurs during reading or decoding the frames.
+     * @throws IndexOutOfBoundsException if there is no such frame.
+     */
+    public BufferedImage getFrame(int n) throws IOException {
+        render(n);
+        return compositor.toImage();
+    }
+
+    /**
+     * Renders the frame into the caller's buffer.
+     *
+     * @param n      frame index.
+     * @param dst    buffer for non-premultiplied ARGB pixels.
+     * @param offset index of the upper left pixel of the canvas in the buffer.
+     * @param scan   distance between rows in the buffer.
+     * @throws IOException               if an error occurs during reading or decoding the frames.
+     * @throws IndexOutOfBoundsException if there is no such frame.
+     */
+    public void getFrame(int n, int[] dst, int offset, int scan) throws IOException {
+        render(n);
+        compositor.copyTo(dst, offset, scan);
+    }
+
+    /**
+     * @param time time from the start of the animation.
+     * @return new image of the canvas size with the frame displayed at the time.
+     * @throws IOException if an error occurs during reading or decoding the frames.
+     * @see APNGIndexedReader#indexAt(Duration)
+     */
+    public BufferedImage frameAt(Duration time) throws IOException {
+        return getFrame(indexAt(time));
+    }
+
+    /**
+     * Closes the channel.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        decoder.end();
+        channel.close();
+    }
+
+    /**
+     * Renders the frame onto the canvas, starting from the rendered frame if it is on the way from the keyframe.
+     */
+    private void render(int n) throws IOException {
+        Objects.checkIndex(n, entries.length);
+        if (n == current)
+            return;
+
+        int k = n;
+        while (k > 0 && !entries[k].key && (k % interval != 0 || snapshots[k / interval] == null))
+            --k;
+
+        int i;
+        if (current >= k && current < n)
+            i = current + 1;
+        else {
+            compositor.restore(k == 0 || entries[k].key ? null : snapshots[k / interval]);
+            i = k;
+        }
+
+        for (current = -1; i <= n; ++i) {
+            if (i % interval == 0 && i > 0 && snapshots[i / interval] == null && !entries[i].key)
+                compositor.save(snapshots[i / interval] = new int[width * height]);
+            decode(entries[i]);
+        }
+        current = n;
+    }
+
+    private void decode(Entry entry) throws IOException {
+        final Frame frame = entry.frame;
+        if (pixels.length < frame.width * frame.height)
+            pixels = new int[frame.width * frame.height];
+
+        decoder.begin(frame.width, frame.height);
+        for (int i = 0; i < entry.count; ++i)
+            decoder.feed(read(entry.positions[i], entry.lengths[i]));
+        decoder.finish(pixels);
+
+        compositor.render(pixels, 0, frame.width, frame.x, frame.y, frame.width, frame.height,
+                frame.dispose, frame.blend);
+    }
+
+    /**
+     * Reads bytes of the channel into the reused buffer.
+     *
+     * @return buffer with the bytes from position 0 to the length.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        if (length < 0)
+            throw new IOException("Invalid chunk length: " + length);
+        if (buffer.capacity() < length)
+            buffer = ByteBuffer.allocate(length);
+        buffer.clear().limit(length);
+
+        channel.position(position);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0)
+                throw new EOFException("Unexpected end of APNG stream");
+        return buffer.flip();
+    }
+
+    /**
+     * Parameters of a frame and positions of its compressed image data in the channel.
+     */
+    private final class Entry {
+        final Frame frame;
+        final boolean key;
+        long[] positions = new long[1];
+        int[] lengths = new int[1];
+        int count;
+
+        Entry(Frame frame) {
+            this.frame = frame;
+            // The canvas before such frame is neither visible nor restored by its disposal.
+            this.key = frame.x == 0 && frame.y == 0 && frame.width == width && frame.height == height
+                    && frame.blend == APNG_BLEND_OP_SOURCE && frame.dispose != APNG_DISPOSE_OP_PREVIOUS;
+        }
+
+        void add(long position, int length) throws IOException {
+            if (length < 0)
+                throw new IOException("Invalid chunk length: " + length);
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            positions[count] = position;
+            lengths[count++] = length;
+        }
+    }
+}
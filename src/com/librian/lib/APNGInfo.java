@@ -0,0 +1,342 @@
+package com.librian.lib;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static com.librian.lib.APNGCollector.APNG_BLEND_OP_OVER;
+import static com.librian.lib.APNGCollector.APNG_DISPOSE_OP_PREVIOUS;
+import static com.librian.lib.Chunk.*;
+
+/**
+ * Parameters of an animated PNG read without decoding image data: canvas size, pixel format, number of plays
+ * and the parameters of every frame.
+ * <p>
+ * Only IHDR, acTL and fcTL chunks are read, the data of other chunks is skipped; with validation every chunk is
+ * read to check its CRC, and sequence numbers, the number of frames and frame regions are checked as well.
+ */
+public final class APNGInfo {
+    private final int width, height;
+    private final byte depth, type;
+    private final boolean animated;
+    private final int plays;
+    private final List<Frame> frames;
+    private final long duration;
+
+    private APNGInfo(int width, int height, byte depth, byte type, boolean animated, int plays, List<Frame> frames) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.type = type;
+        this.animated = animated;
+        this.plays = plays;
+        this.frames = Collections.unmodifiableList(frames);
+
+        long duration = 0;
+        for (Frame frame : frames)
+            duration += frame.delay();
+        this.duration = duration;
+    }
+
+    /**
+     * Reads the parameters from the stream, which is read up to the end of IEND chunk.
+     *
+     * @param input    APNG stream.
+     * @param validate if true CRC of every chunk, sequence numbers, the number of frames and frame regions are checked.
+     * @return parameters of the animation.
+     * @throws IOException if an error occurs during reading, the stream is not a PNG stream,
+     *                     or the validation fails.
+     */
+    public static APNGInfo probe(InputStream input, boolean validate) throws IOException {
+        return new Parser(input, null, validate).parse();
+    }
+
+    /**
+     * Reads the parameters from the buffer; its position is not changed.
+     *
+     * @param buffer   APNG data from the position to the limit of the buffer.
+     * @param validate if true CRC of every chunk, sequence numbers, the number of frames and frame regions are checked.
+     * @return parameters of the animation.
+     * @throws IOException if the data is not PNG data or the validation fails.
+     */
+    public static APNGInfo probe(ByteBuffer buffer, boolean validate) throws IOException {
+        return new Parser(null, buffer.slice(), validate).parse();
+    }
+
+    /**
+     * Reads the parameters from the file, which is mapped into memory, so that skipped chunks are not read at all.
+     *
+     * @param path     APNG file.
+     * @param validate if true CRC of every chunk, sequence numbers, the number of frames and frame regions are checked.
+     * @return parameters of the animation.
+     * @throws IOException if an error occurs during mapping, the file is not a PNG file, or the validation fails.
+     */
+    public static APNGInfo probe(Path path, boolean validate) throws IOException {
+        return probe(APNGReader.map(path), validate);
+    }
+
+    /**
+     * @return canvas width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return canvas height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return bit depth written in IHDR chunk.
+     */
+    public byte getBitDepth() {
+        return depth;
+    }
+
+    /**
+     * @return colour type written in IHDR chunk.
+     */
+    public byte getColorType() {
+        return type;
+    }
+
+    /**
+     * @return true if the stream has acTL chunk.
+     */
+    public boolean isAnimated() {
+        return animated;
+    }
+
+    /**
+     * @return number of times to loop the animation, 0 for infinite looping.
+     */
+    public int getPlays() {
+        return plays;
+    }
+
+    /**
+     * @return number of frames with fcTL chunk.
+     */
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * @return unmodifiable list of the frames with fcTL chunk; their images are null.
+     */
+    public List<Frame> getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return duration of one play of the animation.
+     */
+    public Duration getDuration() {
+        return Duration.ofNanos(duration);
+    }
+
+    @Override
+    public String toString() {
+        return "APNGInfo{" + width + "x" + height + ", type=" + type + ", depth=" + depth
+                + ", frames=" + frames.size() + ", plays=" + plays + ", duration=" + getDuration() + '}';
+    }
+
+    /**
+     * Reads chunks either from a stream, copying only the data it needs into the reused array,
+     * or from a buffer as slices.
+     */
+    private static final class Parser {
+        private final InputStream stream;
+        private final ByteBuffer data;
+        private final boolean validate;
+        private final CRC32 crc;
+        private byte[] buffer = new byte[64];
+
+        Parser(InputStream stream, ByteBuffer data, boolean validate) {
+            this.stream = stream;
+            this.data = data;
+            this.validate = validate;
+            this.crc = validate ? new CRC32() : null;
+        }
+
+        APNGInfo parse() throws IOException {
+            if (!read(8).equals(ByteBuffer.wrap(SIGNATURE)))
+                throw new IOException("Not a PNG stream");
+
+            ByteBuffer header = read(8);
+            if (header.getInt(0) != 13 || header.getInt(4) != IHDR_TYPE)
+                throw new IOException("IHDR chunk is missing");
+            ByteBuffer ihdr = chunk(IHDR_TYPE, 13);
+            final int width = ihdr.getInt(0),
+                      height = ihdr.getInt(4);
+            final byte depth = ihdr.get(8),
+                       type = ihdr.get(9);
+            if (validate && (width <= 0 || height <= 0))
+                throw new IOException("Invalid image size: " + width + "x" + height);
+
+            List<Frame> frames = new ArrayList<>();
+            boolean animated = false, image = false, filled = true, idat = false, ended = false;
+            int plays = 0, declared = 0, sequence = 0;
+
+            while (true) {
+                header = read(8);
+                final int length = header.getInt(0),
+                          name = header.getInt(4);
+                if (length < 0)
+                    throw new IOException("Invalid chunk length: " + length);
+
+                switch (name) {
+                    case IEND_TYPE -> {
+                        chunk(name, length);
+                        if (validate && !filled)
+                            throw new IOException("Frame " + (frames.size() - 1) + " has no image data");
+                        if (validate && animated && declared != frames.size())
+                            throw new IOException("acTL chunk declares " + declared + " frames, but there are "
+                                    + frames.size());
+                        return new APNGInfo(width, height, depth, type, animated, plays, frames);
+                    }
+                    case ACTL_TYPE -> {
+                        ByteBuffer acTL = chunk(name, length);
+                        if (length < 8)
+                            throw new IOException("Invalid acTL chunk length: " + length);
+                        if (validate && (animated || image))
+                            throw new IOException("acTL chunk must be once and before image data");
+                        animated = true;
+                        declared = acTL.getInt(0);
+                        plays = acTL.getInt(4);
+                    }
+                    case FCTL_TYPE -> {
+                        ByteBuffer fcTL = chunk(name, length);
+                        if (length < 26)
+                            throw new IOException("Invalid fcTL chunk length: " + length);
+
+                        Frame frame = new Frame();
+                        Chunk.readFcTL(fcTL.position(4), frame);
+                        frame.animated = true;
+                        if (validate) {
+                            sequence = sequence(fcTL, sequence);
+                            if (!filled)
+                                throw new IOException("Frame " + (frames.size() - 1) + " has no image data");
+                            validate(frame, frames.size(), width, height, image);
+                        }
+                        frames.add(frame);
+                        filled = idat = false;
+                    }
+                    case IDAT_TYPE -> {
+                        if (validate) {
+                            chunk(name, length);
+                            // Only the first frame may be the static image, and IDAT chunks are consecutive.
+                            if (ended || frames.size() > 1 || frames.size() == 1 && !idat && (filled || image))
+                                throw new IOException("IDAT chunk out of place");
+                        } else
+                            skip(length + 4L);
+                        image = true;
+                        idat = !frames.isEmpty();
+                        filled = true;
+                    }
+                    case FDAT_TYPE -> {
+                        if (validate) {
+                            ByteBuffer fdAT = chunk(name, length);
+                            if (length < 4)
+                                throw new IOException("Invalid fdAT chunk length: " + length);
+                            if (frames.isEmpty() || idat)
+                                throw new IOException("fdAT chunk without fcTL chunk");
+                            sequence = sequence(fdAT, sequence);
+                        } else
+                            skip(length + 4L);
+                        filled = true;
+                    }
+                    default -> {
+                        if (validate)
+                            chunk(name, length);
+                        else
+                            skip(length + 4L);
+                    }
+                }
+                // Any other chunk after the image data ends it, whether the static image is a frame or not.
+                if (name != IDAT_TYPE && image)
+                    ended = true;
+            }
+        }
+
+        /**
+         * Reads the chunk data and CRC, which is checked with validation.
+         *
+         * @return chunk data.
+         */
+        private ByteBuffer chunk(int name, int length) throws IOException {
+            ByteBuffer content = read(length + 4);
+            if (validate) {
+                crc.reset();
+                for (int i = 24; i >= 0; i -= 8)
+                    crc.update(name >>> i);
+                crc.update(content.slice(0, length));
+                if ((int) crc.getValue() != content.getInt(length))
+                    throw new IOException("CRC mismatch in chunk " + new String(new byte[]{
+                            (byte) (name >>> 24), (byte) (name >>> 16), (byte) (name >>> 8), (byte) name}));
+            }
+            return content.limit(length);
+        }
+
+        private static int sequence(ByteBuffer content, int expected) throws IOException {
+            final int sequence = content.getInt(0);
+            if (sequence != expected)
+                throw new IOException("Sequence number " + sequence + " where " + expected + " is expected");
+            return expected + 1;
+        }
+
+        private static void validate(Frame frame, int index, int width, int height, boolean image) throws IOException {
+            if (frame.width <= 0 || frame.height <= 0 || frame.x < 0 || frame.y < 0
+                    || frame.x > width - frame.width || frame.y > height - frame.height)
+                throw new IOException("Frame " + index + " " + frame.width + "x" + frame.height + " at "
+                        + frame.x + "," + frame.y + " is out of canvas " + width + "x" + height);
+            if (index == 0 && !image && (frame.x != 0 || frame.y != 0 || frame.width != width || frame.height != height))
+                throw new IOException("The frame of the static image must cover the whole canvas");
+            if (frame.dispose < 0 || frame.dispose > APNG_DISPOSE_OP_PREVIOUS
+                    || frame.blend < 0 || frame.blend > APNG_BLEND_OP_OVER)
+                throw new IOException("Frame " + index + " has unknown dispose or blend operation");
+        }
+
+        /**
+         * @return buffer with the bytes from position 0 to the length,
+         *         which is valid until the next read if the data is read from the stream.
+         */
+        private ByteBuffer read(int length) throws IOException {
+            if (length < 0)
+                throw new IOException("Invalid chunk length: " + length);
+
+            if (data != null) {
+                if (data.remaining() < length)
+                    throw new EOFException("Unexpected end of APNG data");
+                ByteBuffer slice = data.slice(data.position(), length);
+                data.position(data.position() + length);
+                return slice;
+            }
+
+            if (buffer.length < length)
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            if (stream.readNBytes(buffer, 0, length) < length)
+                throw new EOFException("Unexpected end of APNG stream");
+            return ByteBuffer.wrap(buffer, 0, length);
+        }
+
+        private void skip(long length) throws IOException {
+            if (data != null) {
+                if (data.remaining() < length)
+                    throw new EOFException("Unexpected end of APNG data");
+                data.position(data.position() + (int) length);
+            } else
+                stream.skipNBytes(length);
+        }
+    }
+}
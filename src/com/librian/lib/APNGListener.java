@@ -0,0 +1,33 @@
+package com.librian.lib;
+
+/**
+ * Receiver of the measurements of every frame that is encoded by {@code APNGCollector} or decoded by
+ * {@code APNGReader}, for example to export them to a metrics system and find slow frames.
+ * <p>
+ * The same measurements are recorded as JDK Flight Recorder events {@code com.librian.apng.FrameEncode} and
+ * {@code com.librian.apng.FrameDecode} in category "APNG" whenever a recording enables them, with or without
+ * a listener. If there is no listener and no recording, no measurements are made beyond reading the clock.
+ * <p>
+ * Methods are called on the thread that adds or reads frames, in the order of frames, so an implementation
+ * that is used by one collector or reader needs no synchronization. They should return quickly.
+ *
+ * @see APNGCollector#setListener(APNGListener)
+ * @see APNGReader#setListener(APNGListener)
+ */
+public interface APNGListener {
+    /**
+     * Called when the chunks of a frame are written, including the static image.
+     *
+     * @param metrics measurements of the frame with stages {@code OPTIMIZE}, {@code ENCODE} and {@code WRITE}.
+     */
+    default void frameEncoded(FrameMetrics metrics) {
+    }
+
+    /**
+     * Called when a frame is decoded, including the static image.
+     *
+     * @param metrics measurements of the frame with stages {@code READ} and {@code DECODE}.
+     */
+    default void frameDecoded(FrameMetrics metrics) {
+    }
+}
@@ -0,0 +1,429 @@
+package com.librian.lib;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.zip.CRC32;
+
+import static com.librian.lib.Chunk.*;
+
+/**
+ * A class to read an animated PNG from fragments of data as they arrive, for non-blocking sources.
+ * <p>
+ * The caller pushes fragments of any size with {@link #feed(ByteBuffer)}, or subscribes the parser to a
+ * {@code Flow.Publisher<ByteBuffer>}. The parser keeps the state of the current chunk between fragments:
+ * image data is inflated as soon as it arrives and only chunk headers and small chunks such as fcTL are copied.
+ * Every frame is passed to the listener as soon as its image data is complete, the first frame is the static image,
+ * as {@code APNGReader} returns it. CRC of every chunk is checked.
+ * <p>
+ * An instance is not thread-safe: fragments must be fed by one thread at a time, which is what
+ * {@code Flow.Subscriber} guarantees.
+ *
+ * @see APNGReader
+ */
+public class APNGParser implements Flow.Subscriber<ByteBuffer>, Closeable {
+    /**
+     * Receiver of the frames read by the parser.
+     */
+    public interface Listener {
+        /**
+         * Called for every frame as soon as its image data is complete.
+         *
+         * @param frame frame as it is written in APNG.
+         */
+        void onFrame(Frame frame);
+
+        /**
+         * Called when IEND chunk is read.
+         */
+        default void onComplete() {
+        }
+
+        /**
+         * Called when the data cannot be parsed or the publisher fails, if the parser is subscribed to a publisher.
+         *
+         * @param error cause.
+         */
+        default void onError(Throwable error) {
+        }
+    }
+
+    private static final int START = 0,
+                             HEADER = 1,
+                             BODY = 2,
+                             SEQUENCE = 3,
+                             DATA = 4,
+                             SKIP = 5,
+                             CRC = 6,
+                             DONE = 7,
+                             FAILED = 8;
+    /**
+     * Maximum length of a chunk that is copied to be read as a whole.
+     */
+    private static final int MAX_BODY = 1 << 16;
+
+    private final Listener listener;
+    private final PNGDecoder decoder = new PNGDecoder();
+    private final CRC32 crc = new CRC32();
+    private final byte[] head = new byte[8];
+    private byte[] body = new byte[64];
+    private Flow.Subscription subscription;
+    private int state = START;
+    private byte[] target = head;
+    private int need = 8, have;
+    private int length, type, remaining;
+    private int width, height, frames, plays;
+    private Frame frame;
+    private int data;
+    private boolean control, decoding, emitted;
+
+    /**
+     * @param listener receiver of the frames.
+     */
+    public APNGParser(Listener listener) {
+        if (listener == null)
+            throw new NullPointerException("listener");
+        this.listener = listener;
+    }
+
+    /**
+     * @return canvas width, or 0 if IHDR chunk has not been read yet.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return canvas height, or 0 if IHDR chunk has not been read yet.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of frames declared in acTL chunk, or 0 if it has not been read yet.
+     */
+    public int getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * @return number of times to loop the animation declared in acTL chunk, 0 for infinite looping.
+     */
+    public int getPlays() {
+        return plays;
+    }
+
+    /**
+     * @return true if IEND chunk has been read.
+     */
+    public boolean isComplete() {
+        return state == DONE;
+    }
+
+    /**
+     * Parses the next fragment of APNG data; frames completed by the fragment are passed to the listener
+     * before the method returns. Bytes after IEND chunk are ignored.
+     *
+     * @param fragment data from its position to its limit; the buffer is read up to its limit
+     *                 and is not used after the method returns.
+     * @throws IOException           if the data is not PNG data, a CRC does not match or the image data is corrupted.
+     *                               The parser cannot be used afterward.
+     * @throws IllegalStateException if the parser has failed or is closed.
+     */
+    public void feed(ByteBuffer fragment) throws IOException {
+        if (state == FAILED)
+            throw new IllegalStateException("The parser has failed or is closed");
+
+        try {
+            while (fragment.hasRemaining() && state != DONE) {
+                if (state == DATA || state == SKIP)
+                    pass(fragment);
+                else if (fill(fragment))
+                    next();
+            }
+            fragment.position(fragment.limit());
+        } catch (IOException | RuntimeException e) {
+            fail();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the decoder. The parser cannot be used afterward.
+     */
+    @Override
+    public void close() {
+        if (state != DONE)
+            state = FAILED;
+        decoder.end();
+    }
+
+    /**
+     * Requests fragments one by one.
+     */
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    /**
+     * Parses the fragment; if it fails, the subscription is cancelled and the listener is notified.
+     *
+     * @see APNGParser#feed(ByteBuffer)
+     */
+    @Override
+    public void onNext(ByteBuffer fragment) {
+        if (state == FAILED)
+            return;
+        try {
+            feed(fragment);
+        } catch (IOException | RuntimeException e) {
+            subscription.cancel();
+            listener.onError(e);
+            return;
+        }
+        if (state == DONE)
+            subscription.cancel();
+        else
+            subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        if (state == DONE || state == FAILED)
+            return;
+        fail();
+        listener.onError(error);
+    }
+
+    /**
+     * Notifies the listener of truncated data if IEND chunk has not been read.
+     */
+    @Override
+    public void onComplete() {
+        if (state == DONE || state == FAILED)
+            return;
+        fail();
+        listener.onError(new EOFException("Unexpected end of APNG stream"));
+    }
+
+    /**
+     * Copies bytes of the fragment until the fixed-size part is complete.
+     *
+     * @return true if the part is complete.
+     */
+    private boolean fill(ByteBuffer fragment) {
+        final int n = Math.min(need - have, fragment.remaining());
+        fragment.get(target, have, n);
+        have += n;
+        return have == need;
+    }
+
+    /**
+     * Passes image data of the fragment to the decoder, or skips the data of an unknown chunk.
+     */
+    private void pass(ByteBuffer fragment) throws IOException {
+        final int n = Math.min(remaining, fragment.remaining());
+        ByteBuffer part = fragment.slice(fragment.position(), n);
+        fragment.position(fragment.position() + n);
+
+        crc.update(part.duplicate());
+        if (state == DATA && !emitted)
+            decoder.feed(part);
+        if ((remaining -= n) == 0)
+            expect(CRC, head, 4);
+    }
+
+    /**
+     * Handles the completed part and sets up the next one.
+     */
+    private void next() throws IOException {
+        switch (state) {
+            case START -> {
+                for (int i = 0; i < 8; ++i)
+                    if (head[i] != SIGNATURE[i])
+                        throw new IOException("Not a PNG stream");
+                expect(HEADER, head, 8);
+            }
+            case HEADER -> header();
+            case BODY -> {
+                crc.update(body, 0, length);
+                expect(CRC, head, 4);
+            }
+            case SEQUENCE -> {
+                crc.update(head, 0, 4);
+                remaining = length - 4;
+                if (remaining == 0)
+                    expect(CRC, head, 4);
+                else
+                    expect(DATA, head, 0);
+            }
+            case CRC -> {
+                if (ByteBuffer.wrap(head).getInt(0) != (int) crc.getValue())
+                    throw new IOException("CRC mismatch in chunk " + name(type));
+                chunk();
+            }
+        }
+    }
+
+    /**
+     * Reads the chunk header and chooses how the chunk data is read.
+     */
+    private void header() throws IOException {
+        length = ByteBuffer.wrap(head).getInt(0);
+        type = ByteBuffer.wrap(head).getInt(4);
+        if (length < 0)
+            throw new IOException("Invalid chunk length: " + length);
+        if (width == 0 && type != IHDR_TYPE)
+            throw new IOException("IHDR chunk is missing");
+        crc.reset();
+        crc.update(head, 4, 4);
+
+        // The frame ends at the first chunk that is not its image data.
+        if (decoding && type != data)
+            end();
+
+        switch (type) {
+            case IDAT_TYPE, FDAT_TYPE -> {
+                if (!decoding) {
+                    if (type == FDAT_TYPE && !control)
+                        throw new IOException("fdAT chunk without fcTL chunk");
+                    decoder.begin(frame.width, frame.height);
+                    decoding = true;
+                    data = type;
+                }
+                if (type == FDAT_TYPE) {
+                    if (length < 4)
+                        throw new IOException("Invalid fdAT chunk length: " + length);
+                    expect(SEQUENCE, head, 4);
+                } else {
+                    remaining = length;
+                    if (remaining == 0)
+                        expect(CRC, head, 4);
+                    else
+                        expect(DATA, head, 0);
+                }
+            }
+            case IHDR_TYPE, IEND_TYPE, ACTL_TYPE, FCTL_TYPE, PLTE_TYPE, TRNS_TYPE -> {
+                if (length > MAX_BODY)
+                    throw new IOException("Chunk " + name(type) + " is too long: " + length);
+                if (body.length < length)
+                    body = new byte[Math.max(length, body.length * 2)];
+                if (length == 0)
+                    expect(CRC, head, 4);
+                else
+                    expect(BODY, body, length);
+            }
+            default -> {
+                remaining = length;
+                if (remaining == 0)
+                    expect(CRC, head, 4);
+                else
+                    expect(SKIP, head, 0);
+            }
+        }
+    }
+
+    /**
+     * Applies the chunk whose CRC has been checked.
+     */
+    private void chunk() throws IOException {
+        switch (type) {
+            case IHDR_TYPE -> {
+                if (length != 13 || width != 0)
+                    throw new IOException("Invalid IHDR chunk");
+                ByteBuffer content = content();
+                decoder.header(content);
+                width = content.getInt(0);
+                height = content.getInt(4);
+                frame = frame();
+            }
+            case IEND_TYPE -> {
+                state = DONE;
+                decoder.end();
+                listener.onComplete();
+                return;
+            }
+            case ACTL_TYPE -> {
+                if (length < 8)
+                    throw new IOException("Invalid acTL chunk length: " + length);
+                frames = content().getInt(0);
+                plays = content().getInt(4);
+            }
+            case FCTL_TYPE -> {
+                if (length < 26)
+                    throw new IOException("Invalid fcTL chunk length: " + length);
+                Chunk.readFcTL(content().position(4), frame);
+                control = true;
+            }
+            case PLTE_TYPE -> decoder.palette(content());
+            case TRNS_TYPE -> decoder.transparency(content());
+            case IDAT_TYPE, FDAT_TYPE -> {
+                // Chunks after the complete image hold at most the end of the zlib stream.
+                if (!emitted && decoder.complete()) {
+                    emit();
+                    emitted = true;
+                }
+            }
+        }
+        expect(HEADER, head, 8);
+    }
+
+    /**
+     * Ends the image data of the frame, passing the frame to the listener if it has not been passed yet.
+     */
+    private void end() throws IOException {
+        if (!emitted)
+            emit();
+        decoding = emitted = false;
+        frame = frame();
+    }
+
+    private void emit() throws IOException {
+        frame.image = PNGDecoder.image(decoder.finish(), frame.width, frame.height);
+        frame.animated = control;
+        control = false;
+        listener.onFrame(frame);
+    }
+
+    /**
+     * @return new frame of the canvas size, which fcTL chunk may change.
+     */
+    private Frame frame() {
+        Frame frame = new Frame();
+        frame.width = width;
+        frame.height = height;
+        return frame;
+    }
+
+    /**
+     * @return data of the chunk that is read as a whole.
+     */
+    private ByteBuffer content() {
+        return ByteBuffer.wrap(body, 0, length);
+    }
+
+    private void expect(int state, byte[] target, int need) {
+        this.state = state;
+        this.target = target;
+        this.need = need;
+        this.have = 0;
+    }
+
+    private void fail() {
+        state = FAILED;
+        decoder.end();
+    }
+
+    private static String name(int type) {
+        return new String(new byte[]{(byte) (type >>> 24), (byte) (type >>> 16), (byte) (type >>> 8), (byte) type});
+    }
+}
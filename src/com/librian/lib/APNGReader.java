@@ -0,0 +1,404 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import jdk.jfr.FlightRecorder;
+
+import static com.librian.lib.Chunk.*;
+
+/**
+ * A class to read an animated PNG frame by frame.
+ * <p>
+ * Unlike {@code APNGSeparator}, a frame is read and decoded only when the caller advances the iterator,
+ * so only the frames the caller holds stay in memory. Image data is decoded by the built-in decoder
+ * straight into the {@code int[]} raster of a {@code TYPE_INT_ARGB} image.
+ *
+ * @see APNGSeparator
+ */
+public class APNGReader implements Iterator<Frame>, Closeable {
+    private final InputStream stream;
+    private final ByteBuffer data;
+    private final PNGDecoder decoder = new PNGDecoder();
+    private final int width, height;
+    private byte[] buffer = new byte[8192];
+    private Frame next;
+    private APNGListener listener;
+    private int length, type, index;
+    private int frames, plays;
+    private boolean control, done, peeked;
+
+    /**
+     * Constructs an instance with the described APNG stream and reads its header.
+     *
+     * @param input APNG stream.
+     * @throws IOException if an error occurs during reading or the stream is not a PNG stream.
+     */
+    public APNGReader(InputStream input) throws IOException {
+        this(input, null);
+    }
+
+    /**
+     * Constructs an instance with APNG data in the buffer and reads its header.
+     * Chunks are read as slices of the buffer without copying; neither the buffer content
+     * nor its position may be changed while frames are read.
+     *
+     * @param buffer APNG data from the position to the limit of the buffer.
+     * @throws IOException if the data is not PNG data.
+     */
+    public APNGReader(ByteBuffer buffer) throws IOException {
+        this(null, buffer.slice());
+    }
+
+    /**
+     * Constructs an instance with the file from the current position of the channel to its end,
+     * which is mapped into memory. The channel is not used after the constructor returns and is not closed.
+     *
+     * @param channel channel of APNG file.
+     * @throws IOException if an error occurs during mapping or the file is not a PNG file.
+     */
+    public APNGReader(FileChannel channel) throws IOException {
+        this(map(channel));
+    }
+
+    /**
+     * Constructs an instance with the file, which is mapped into memory.
+     *
+     * @param path APNG file.
+     * @throws IOException if an error occurs during mapping or the file is not a PNG file.
+     */
+    public APNGReader(Path path) throws IOException {
+        this(map(path));
+    }
+
+    private APNGReader(InputStream input, ByteBuffer data) throws IOException {
+        this.stream = input;
+        this.data = data;
+
+        try {
+            if (!read(8).equals(ByteBuffer.wrap(SIGNATURE)))
+                throw new IOException("Not a PNG stream");
+
+            ByteBuffer bHeader = read(25);
+            if (bHeader.getInt(0) != 13 || bHeader.getInt(4) != IHDR_TYPE)
+                throw new IOException("IHDR chunk is missing");
+            width = bHeader.getInt(8);
+            height = bHeader.getInt(12);
+            decoder.header(bHeader.slice(8, 13));
+        } catch (IOException | RuntimeException e) {
+            decoder.end();
+            throw e;
+        }
+    }
+
+    /**
+     * @return canvas width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return canvas height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of frames declared in acTL chunk, or 0 if the stream has no acTL chunk.
+     *         As acTL chunk precedes image data, it is known once the first frame is read or {@link #hasNext()}
+     *         is called.
+     */
+    public int getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * @return number of times to loop the animation declared in acTL chunk, 0 for infinite looping.
+     *         It is known once the first frame is read or {@link #hasNext()} is called.
+     */
+    public int getPlays() {
+        return plays;
+    }
+
+    /**
+     * Sets the receiver of the measurements of every frame, which is called on the thread that reads frames
+     * once the frame is decoded. It can be changed at any time.
+     *
+     * @param listener listener, or null to stop the measurements (default).
+     * @see APNGListener
+     */
+    public void setListener(APNGListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return true if there is one more frame in the stream.
+     * @throws UncheckedIOException if an error occurs during reading.
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            try {
+                next = readFrame();
+            } catch (IOException e) {
+                done = true;
+                decoder.end();
+                throw new UncheckedIOException(e);
+            }
+            done = next == null;
+            // The native memory of the decoder is released as soon as the frames end, without closing the stream.
+            if (done)
+                decoder.end();
+        }
+        return next != null;
+    }
+
+    /**
+     * Reads and decodes the next frame. The first frame is the static image,
+     * whether it is part of the animation or not.
+     *
+     * @return frame as it is written in APNG.
+     * @throws UncheckedIOException   if an error occurs during reading.
+     * @throws NoSuchElementException if there are no more frames.
+     */
+    @Override
+    public Frame next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        Frame frame = next;
+        next = null;
+        return frame;
+    }
+
+    /**
+     * @return sequential stream of the remaining frames.
+     * @see APNGReader#next()
+     */
+    public Stream<Frame> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Returns an iterator over the remaining frames as they are displayed in the animation.
+     * The static image is skipped if it is not part of the animation.
+     * Only the canvas of the animation is kept between frames, every returned image is a new copy of it.
+     *
+     * @return iterator of images with the canvas size.
+     */
+    public Iterator<BufferedImage> composited() {
+        return new Iterator<>() {
+            private final Compositor compositor = new Compositor(width, height);
+
+            @Override
+            public boolean hasNext() {
+                while (APNGReader.this.hasNext() && !next.animated)
+                    APNGReader.this.next();
+                return APNGReader.this.hasNext();
+            }
+
+            @Override
+            public BufferedImage next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                compositor.render(APNGReader.this.next());
+                return compositor.toImage();
+            }
+        };
+    }
+
+    /**
+     * Closes the underlying stream, if the instance reads a stream.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        done = true;
+        next = null;
+        decoder.end();
+        if (stream != null)
+            stream.close();
+    }
+
+    /**
+     * Reads chunks until the next frame is complete.
+     *
+     * @return next frame or null if IEND chunk is reached.
+     * @throws IOException if an error occurs during reading or skipping bytes or decoding image data.
+     */
+    private Frame readFrame() throws IOException {
+        final long start = System.nanoTime();
+        // The first event class initializes the event system, which takes long, so no event is made without it.
+        FrameDecodeEvent event = FlightRecorder.isInitialized() ? new FrameDecodeEvent() : null;
+        if (event != null)
+            event.begin();
+        Frame frame = new Frame();
+        frame.width = width;
+        frame.height = height;
+
+        while (true) {
+            if (!peeked) {
+                ByteBuffer bHeader = read(8);
+                length = bHeader.getInt(0);
+                type = bHeader.getInt(4);
+            }
+            peeked = false;
+
+            switch (type) {
+                case IEND_TYPE -> {
+                    return null;
+                }
+                case ACTL_TYPE -> {
+                    if (length < 8)
+                        throw new IOException("Invalid acTL chunk length: " + length);
+                    ByteBuffer content = read(length);
+                    frames = content.getInt(0);
+                    plays = content.getInt(4);
+                    skip(4);
+                }
+                case FCTL_TYPE -> {
+                    Chunk.readFcTL(read(length).position(4), frame);
+                    control = true;
+
+                    skip(4);
+                }
+                case PLTE_TYPE -> {
+                    decoder.palette(read(length));
+                    skip(4);
+                }
+                case TRNS_TYPE -> {
+                    decoder.transparency(read(length));
+                    skip(4);
+                }
+                case IDAT_TYPE, FDAT_TYPE -> {
+                    final int name = type;
+                    decoder.begin(frame.width, frame.height);
+                    long decode = 0, compressed = 0;
+
+                    do {
+                        ByteBuffer chunk = type == IDAT_TYPE ? read(length) : read(length).position(4);
+                        compressed += chunk.remaining();
+                        final long feed = System.nanoTime();
+                        decoder.feed(chunk);
+                        decode += System.nanoTime() - feed;
+                        skip(4);
+
+                        ByteBuffer bHeader = read(8);
+                        length = bHeader.getInt(0);
+                        type = bHeader.getInt(4);
+                    } while (type == name);
+                    peeked = true;
+
+                    final long finish = System.nanoTime();
+                    frame.image = PNGDecoder.image(decoder.finish(), frame.width, frame.height);
+                    frame.animated = control;
+                    control = false;
+                    final long end = System.nanoTime();
+                    decode += end - finish;
+
+                    if (listener != null || event != null && event.isEnabled())
+                        report(frame, event, end - start - decode, decode, compressed);
+                    ++index;
+                    return frame;
+                }
+                default -> {
+                    if (length < 0)
+                        throw new IOException("Invalid chunk length: " + length);
+                    skip(length + 4L);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the measurements of the decoded frame to the listener and commits the event if it is enabled.
+     *
+     * @param event      event of the frame or null.
+     * @param read       nanoseconds of the read stage.
+     * @param decode     nanoseconds of the decode stage.
+     * @param compressed number of bytes of compressed image data.
+     */
+    private void report(Frame frame, FrameDecodeEvent event, long read, long decode, long compressed) {
+        FrameMetrics metrics = new FrameMetrics(index, frame.width, frame.height,
+                new long[]{0, 0, 0, read, decode}, decoder.size(), compressed,
+                (data != null ? 0 : buffer.length) + decoder.capacity());
+        if (event != null && event.shouldCommit()) {
+            event.set(metrics);
+            event.commit();
+        }
+        if (listener != null)
+            listener.frameDecoded(metrics);
+    }
+
+    /**
+     * Reads the bytes: a slice of the buffer, or the stream data copied into the reused array.
+     *
+     * @param length number of bytes.
+     * @return buffer with the bytes from position 0 to the length,
+     *         which is valid until the next read if the data is read from the stream.
+     */
+    private ByteBuffer read(int length) throws IOException {
+        if (length < 0)
+            throw new IOException("Invalid chunk length: " + length);
+
+        if (data != null) {
+            if (data.remaining() < length)
+                throw new EOFException("Unexpected end of APNG data");
+            ByteBuffer slice = data.slice(data.position(), length);
+            data.position(data.position() + length);
+            return slice;
+        }
+
+        if (buffer.length < length)
+            buffer = new byte[length];
+        if (stream.readNBytes(buffer, 0, length) < length)
+            throw new EOFException("Unexpected end of APNG stream");
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+    private void skip(long length) throws IOException {
+        if (data != null) {
+            if (data.remaining() < length)
+                throw new EOFException("Unexpected end of APNG data");
+            data.position(data.position() + (int) length);
+        } else
+            stream.skipNBytes(length);
+    }
+
+    /**
+     * Maps the file from the current position of the channel to its end into memory, read-only.
+     *
+     * @throws IOException if the file is larger than 2 GB or an error occurs during mapping.
+     */
+    static ByteBuffer map(FileChannel channel) throws IOException {
+        final long position = channel.position(),
+                   size = channel.size() - position;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("File is too large to be mapped: " + size + " bytes");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * @see APNGReader#map(FileChannel)
+     */
+    static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel);
+        }
+    }
+}
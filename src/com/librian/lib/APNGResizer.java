@@ -0,0 +1,366 @@
+package com.librian.lib;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * A class to resize an animated PNG frame by frame, for example to make thumbnails.
+ * <p>
+ * Frames keep their delays and disposal operations; the region of every frame is scaled in proportion
+ * to the canvas and its pixels are averaged over the area they cover. Every frame is taken from the scaled canvas
+ * and written with {@code APNG_BLEND_OP_SOURCE}, so pixels on the edge of its region, which are partly covered by
+ * the frame and partly by the canvas under it, are exact, and the resized animation displays the scaled frames
+ * of the source animation. Frames blended with {@code APNG_BLEND_OP_OVER} may therefore compress less than
+ * in the source.
+ * When the disposal of a frame would clear whole pixels that are only partly covered by the frame,
+ * the region of the next frame is extended over them and taken from the scaled canvas.
+ * <p>
+ * Frames go through a pipeline of three stages: the calling thread decodes the next frame while the previous one
+ * is scaled on the executor and the ones before it are encoded on the executor. Only one frame is scaled at a time,
+ * so besides the canvas of the source animation only two decoded frames and the scaled frames waiting to be encoded
+ * are in memory. A PNG without acTL chunk is written as an animation of one frame, the static image.
+ *
+ * @see APNGReader
+ * @see APNGCollector
+ */
+public class APNGResizer {
+    private final int width, height;
+    private boolean keepRatio = true;
+    private Executor executor = ForkJoinPool.commonPool();
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private byte filter = PNG_FILTER_NONE;
+
+    /**
+     * @param width  width of the resized canvas, or the maximum width if the aspect ratio is kept.
+     * @param height height of the resized canvas, or the maximum height if the aspect ratio is kept.
+     * @throws IllegalArgumentException if the size is not positive.
+     */
+    public APNGResizer(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @param keep if true (default) the canvas is scaled to fit into the size with its aspect ratio;
+     *             otherwise it is scaled to the size exactly.
+     */
+    public void setKeepAspectRatio(boolean keep) {
+        this.keepRatio = keep;
+    }
+
+    /**
+     * Sets the executor that scales and encodes frames. Tasks on the executor never wait for each other,
+     * so an executor of any number of threads can be used.
+     *
+     * @param executor executor, {@code ForkJoinPool.commonPool()} by default.
+     * @see APNGCollector#setExecutor(Executor)
+     */
+    public void setExecutor(Executor executor) {
+        if (executor == null)
+            throw new NullPointerException("executor");
+        this.executor = executor;
+    }
+
+    /**
+     * @param level compression level from 0 (no compression) to 9 (best compression),
+     *              or {@code Deflater.DEFAULT_COMPRESSION}.
+     * @see APNGCollector#setCompressionLevel(int)
+     */
+    public void setCompressionLevel(int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        this.level = level;
+    }
+
+    /**
+     * @param filter filter type, {@code PNG_FILTER_NONE} by default.
+     * @see APNGCollector#setFilter(byte)
+     */
+    public void setFilter(byte filter) {
+        if (filter < PNG_FILTER_NONE || filter > PNG_FILTER_ADAPTIVE)
+            throw new IllegalArgumentException("Unknown filter: " + filter);
+        this.filter = filter;
+    }
+
+    /**
+     * Computes the size of the resized canvas.
+     *
+     * @param srcWidth  width of the source canvas.
+     * @param srcHeight height of the source canvas.
+     * @return size of the resized canvas.
+     */
+    public Dimension getSize(int srcWidth, int srcHeight) {
+        if (!keepRatio)
+            return new Dimension(width, height);
+        if ((long) width * srcHeight <= (long) height * srcWidth)
+            return new Dimension(width, (int) Math.max(1, Math.round((double) srcHeight * width / srcWidth)));
+        return new Dimension((int) Math.max(1, Math.round((double) srcWidth * height / srcHeight)), height);
+    }
+
+    /**
+     * Resizes the animation in the buffer.
+     *
+     * @param source APNG data from the position to the limit of the buffer.
+     * @return resized APNG stream in byte array.
+     * @throws IOException if the data is not PNG data or cannot be decoded.
+     */
+    public byte[] resize(ByteBuffer source) throws IOException {
+        try (APNGReader reader = new APNGReader(source)) {
+            return resize(reader, null, null);
+        }
+    }
+
+    /**
+     * Resizes the animation in the file, which is mapped into memory, and writes the result straight to the target
+     * file, which is created or truncated.
+     *
+     * @param source APNG file.
+     * @param target resized APNG file.
+     * @throws IOException if an error occurs during reading or writing, or the source is not a PNG file.
+     */
+    public void resize(Path source, Path target) throws IOException {
+        try (APNGReader reader = new APNGReader(source);
+             FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            resize(reader, null, channel);
+        }
+    }
+
+    /**
+     * Resizes the remaining frames of the reader and writes the result straight to the stream.
+     * The reader must not have returned any frame yet; it is not closed.
+     *
+     * @param source reader of the animation.
+     * @param target stream the resized APNG is written to. It is not closed by this method.
+     * @throws IOException if an error occurs during reading or writing, or the number of frames differs from
+     *                     the number declared in acTL chunk.
+     */
+    public void resize(APNGReader source, OutputStream target) throws IOException {
+        if (target == null)
+            throw new NullPointerException("target");
+        resize(source, target, null);
+    }
+
+    /**
+     * Resizes the remaining frames of the reader and writes the result straight to the channel,
+     * starting from its current position. The reader must not have returned any frame yet; it is not closed.
+     *
+     * @param source reader of the animation.
+     * @param target channel the resized APNG is written to. It is not closed by this method.
+     * @throws IOException if an error occurs during reading or writing.
+     */
+    public void resize(APNGReader source, SeekableByteChannel target) throws IOException {
+        if (target == null)
+            throw new NullPointerException("target");
+        resize(source, null, target);
+    }
+
+    /**
+     * Runs the pipeline: the frame after the one being scaled is decoded on this thread, and a scaled frame
+     * is added to the collector, which encodes it on the executor, before the next one is scaled.
+     *
+     * @return APNG in byte array if there is no sink, otherwise null.
+     */
+    private byte[] resize(APNGReader reader, OutputStream out, SeekableByteChannel channel) throws IOException {
+        final Dimension size = getSize(reader.getWidth(), reader.getHeight());
+        final Scaling scaling = new Scaling(reader.getWidth(), reader.getHeight(), size.width, size.height);
+
+        Frame frame = next(reader);
+        if (frame == null)
+            throw new IOException("Image data is missing");
+        APNGCollector collector = null;
+        while (frame != null) {
+            final Frame current = frame;
+            CompletableFuture<Scaled> scaled = CompletableFuture.supplyAsync(() -> scaling.scale(current), executor);
+            frame = next(reader);
+
+            final Scaled result = join(scaled);
+            if (collector == null)
+                collector = collector(result, reader, out, channel);
+            else
+                collector.addFrameAsync(result.image, result.x, result.y, result.numerator, result.denominator,
+                        result.dispose, result.blend);
+        }
+
+        if (out == null && channel == null)
+            return collector.build();
+        collector.close();
+        return null;
+    }
+
+    /**
+     * Makes the collector with the first scaled frame as its static image.
+     */
+    private APNGCollector collector(Scaled first, APNGReader reader, OutputStream out, SeekableByteChannel channel)
+            throws IOException {
+        final int frames = Math.max(1, reader.getFrameCount()),
+                  plays = reader.getPlays();
+        final BufferedImage image = first.image;
+
+        APNGCollector collector;
+        if (first.animated || reader.getFrameCount() == 0) {
+            if (out != null)
+                collector = new APNGCollector(out, frames, image, plays, first.numerator, first.denominator,
+                        first.dispose, first.blend);
+            else if (channel != null)
+                collector = new APNGCollector(channel, image, plays, first.numerator, first.denominator,
+                        first.dispose, first.blend);
+            else
+                collector = new APNGCollector(image, plays, first.numerator, first.denominator,
+                        first.dispose, first.blend);
+        } else if (out != null)
+            collector = new APNGCollector(out, frames, image, plays);
+        else if (channel != null)
+            collector = new APNGCollector(channel, image, plays);
+        else
+            collector = new APNGCollector(image, plays);
+
+        collector.setExecutor(executor);
+        collector.setCompressionLevel(level);
+        collector.setFilter(filter);
+        return collector;
+    }
+
+    /**
+     * @return next decoded frame, or null at the end of the animation.
+     */
+    private static Frame next(APNGReader reader) throws IOException {
+        try {
+            return reader.hasNext() ? reader.next() : null;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (e.getCause() instanceof Error cause)
+                throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * State of the scaling stage: the canvas of the source animation and the region of the resized canvas
+     * that a decoder may display differently from the scaled source canvas. Frames are scaled one at a time,
+     * in order.
+     */
+    private static final class Scaling {
+        final Compositor source;
+        final FrameScaler scaler;
+        int dirtyX0, dirtyY0, dirtyX1, dirtyY1;
+
+        Scaling(int srcWidth, int srcHeight, int width, int height) {
+            source = new Compositor(srcWidth, srcHeight);
+            scaler = new FrameScaler(srcWidth, srcHeight, width, height);
+        }
+
+        Scaled scale(Frame frame) {
+            final Scaled scaled = new Scaled(frame);
+            if (!frame.animated) {
+                scaled.image = scale(PNGEncoder.rows(frame.image), 0, 0, scaler.srcWidth, scaler.srcHeight,
+                        0, 0, scaler.width, scaler.height);
+                return scaled;
+            }
+
+            final int sx1 = frame.x + frame.width,
+                      sy1 = frame.y + frame.height;
+            // The region covers every resized pixel the frame touches, at least one.
+            final int x0 = scaler.startX(frame.x),
+                      y0 = scaler.startY(frame.y),
+                      x1 = Math.max(x0 + 1, scaler.endX(sx1)),
+                      y1 = Math.max(y0 + 1, scaler.endY(sy1));
+            final boolean exact = scaler.startX(frame.x) == scaler.endX(frame.x) && x1 == scaler.startX(sx1)
+                    && scaler.startY(frame.y) == scaler.endY(frame.y) && y1 == scaler.startY(sy1);
+            source.render(frame);
+
+            // Scaling does not commute with blending, so the frame is taken from the scaled canvas and replaces
+            // the region; blending the frame scaled by itself would leave its edges partly transparent and
+            // blend them again with every following frame.
+            int rx0 = x0, ry0 = y0, rx1 = x1, ry1 = y1;
+            if (dirtyX0 < dirtyX1) {
+                rx0 = Math.min(rx0, dirtyX0);
+                ry0 = Math.min(ry0, dirtyY0);
+                rx1 = Math.max(rx1, dirtyX1);
+                ry1 = Math.max(ry1, dirtyY1);
+            }
+            final int qx0 = scaler.sourceStartX(rx0),
+                      qy0 = scaler.sourceStartY(ry0),
+                      qw = scaler.sourceEndX(rx1) - qx0,
+                      qh = scaler.sourceEndY(ry1) - qy0;
+            final int[] canvas = source.canvas;
+            final int scan = scaler.srcWidth;
+            scaled.image = scale((y, argb) -> System.arraycopy(canvas, (qy0 + y) * scan + qx0, argb, 0, qw),
+                    qx0, qy0, qw, qh, rx0, ry0, rx1 - rx0, ry1 - ry0);
+            scaled.blend = APNG_BLEND_OP_SOURCE;
+            scaled.x = rx0;
+            scaled.y = ry0;
+
+            // The decoder clears whole pixels, while the source animation clears only the part the frame covers;
+            // the previous contents restore the pixels as they were, so the region that differs stays the same.
+            switch (frame.dispose) {
+                case APNG_DISPOSE_OP_NONE -> dirtyX0 = dirtyY0 = dirtyX1 = dirtyY1 = 0;
+                case APNG_DISPOSE_OP_BACKGROUND -> {
+                    if (exact && rx0 == x0 && ry0 == y0 && rx1 == x1 && ry1 == y1) {
+                        dirtyX0 = dirtyY0 = dirtyX1 = dirtyY1 = 0;
+                    } else {
+                        dirtyX0 = rx0;
+                        dirtyY0 = ry0;
+                        dirtyX1 = rx1;
+                        dirtyY1 = ry1;
+                    }
+                }
+            }
+            return scaled;
+        }
+
+        private BufferedImage scale(RowSupplier rows, int sx, int sy, int sw, int sh, int dx, int dy, int dw, int dh) {
+            BufferedImage image = new BufferedImage(dw, dh, BufferedImage.TYPE_INT_ARGB);
+            scaler.scale(rows, sx, sy, sw, sh, dx, dy, dw, dh,
+                    ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+            return image;
+        }
+    }
+
+    /**
+     * Scaled frame with the parameters it is written with.
+     */
+    private static final class Scaled {
+        BufferedImage image;
+        int x, y;
+        final short numerator, denominator;
+        final byte dispose;
+        byte blend;
+        final boolean animated;
+
+        Scaled(Frame frame) {
+            numerator = frame.numerator;
+            denominator = frame.denominator;
+            dispose = frame.dispose;
+            blend = frame.blend;
+            animated = frame.animated;
+        }
+    }
+}
@@ -1,41 +1,91 @@
 package com.librian.lib;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
-
-import static com.librian.lib.Chunk.IEND;
-import static com.librian.lib.Chunk.SIGNATURE;
 
 /**
  * A class to separate an animated PNG into frames.
+ * <p>
+ * All frames are kept in memory; use {@code APNGReader} to read frames one by one, or {@code APNGAnimation}
+ * to share a decoded animation between threads.
  */
 public class APNGSeparator {
-    static final Color TRANSPARENT = new Color(0, 0, 0, 0);
     private final ArrayList<Frame> frames;
 
     /**
-     * Constructs an instance with the described APNG stream.
+     * Constructs an instance with the described APNG stream; all frames are read and decoded at once.
      *
-     * @param input argument of function {@code separateStream}.
-     *              APNG stream.
-     * @throws IOException if an error occurs during invoking {@code APNGSeparator#separateStream}.
-     * @see APNGSeparator#separateStream(PushbackInputStream)
+     * @param input APNG stream.
+     * @throws IOException if an error occurs during reading or decoding frames.
+     * @see APNGReader
      */
     public APNGSeparator(InputStream input) throws IOException {
-        frames = separateStream(new PushbackInputStream(input, 8));
+        this(new APNGReader(input));
+    }
+
+    /**
+     * Constructs an instance with APNG data in the buffer; chunks are read as slices of the buffer without copying.
+     *
+     * @param buffer APNG data from the position to the limit of the buffer.
+     * @throws IOException if an error occurs during decoding frames.
+     * @see APNGReader#APNGReader(ByteBuffer)
+     */
+    public APNGSeparator(ByteBuffer buffer) throws IOException {
+        this(new APNGReader(buffer));
+    }
+
+    /**
+     * Constructs an instance with the file from the current position of the channel, which is mapped into memory.
+     *
+     * @param channel channel of APNG file.
+     * @throws IOException if an error occurs during mapping or decoding frames.
+     * @see APNGReader#APNGReader(FileChannel)
+     */
+    public APNGSeparator(FileChannel channel) throws IOException {
+        this(new APNGReader(channel));
+    }
+
+    /**
+     * Constructs an instance with the file, which is mapped into memory.
+     *
+     * @param path APNG file.
+     * @throws IOException if an error occurs during mapping or decoding frames.
+     * @see APNGReader#APNGReader(Path)
+     */
+    public APNGSeparator(Path path) throws IOException {
+        this(new APNGReader(path));
+    }
+
+    /**
+     * Constructs an instance with the remaining frames of the reader, for example a reader with a listener
+     * that measures every frame.
+     *
+     * @param reader reader of APNG, which is not closed.
+     * @throws IOException if an error occurs during reading or decoding frames.
+     * @see APNGReader#setListener(APNGListener)
+     */
+    public APNGSeparator(APNGReader reader) throws IOException {
+        frames = new ArrayList<>();
+        try {
+            reader.forEachRemaining(frames::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
-     * @return Frames list that are written in APNG as they are.
+     * @return new list of the frames that are written in APNG as they are; the frames themselves are shared.
      * @see Frame
+     * @see APNGAnimation
      */
     public ArrayList<Frame> getRawFrames() {
-        return frames;
+        return new ArrayList<>(frames);
     }
 
     /**
@@ -50,144 +100,26 @@ public class APNGSeparator {
         return mergeFrames(frames, includeFirst);
     }
 
-    /**
-     * @param stream {@code PushbackInputStream} of APNG stream with a pushback buffer size 8.
-     * @return Frames list that are written in APNG as they are.
-     * @throws IOException if an error occurs during reading, unreading or skipping bytes in InputStream
-     *                     or reading ImageIO image.
-     * @see PushbackInputStream
-     */
-    private ArrayList<Frame> separateStream(PushbackInputStream stream) throws IOException{
-        ArrayList<Frame> images = new ArrayList<>();
-
-        if (Arrays.equals(stream.readNBytes(8), Chunk.SIGNATURE)) {
-            byte[] bLength, bName, bHeader = new byte[25];
-            int length;
-            String name = "";
-            var ancillary = new ByteArrayOutputStream();
-            Frame frame = new Frame();
-
-            while (!name.equals("IEND")) {
-                bLength = stream.readNBytes(4);
-                bName = stream.readNBytes(4);
-                length = ByteBuffer.wrap(bLength).getInt();
-                name = new String(bName);
-
-                switch (name) {
-                    case "fcTL" -> {
-                        frame = new Frame();
-                        stream.skipNBytes(4);
-                        byte[] chunk = stream.readNBytes(length - 4);
-                        bHeader = Chunk.createIHDR(bHeader, chunk, frame);
-
-                        stream.skipNBytes(4);
-                    }
-                    case "IHDR" -> {
-                        stream.unread(bName);
-                        stream.unread(bLength);
-                        bHeader = stream.readNBytes(length + 12);
-                    }
-                    case "cHRM", "cICP", "gAMA", "iCCP",
-                         "mDCv", "cLLi", "sBIT",
-                         "sRGB", "bKGD", "hIST",
-                         "tRNS", "PLTE", "eXIf",
-                         "pHYs", "sPLT" -> {
-                        stream.unread(bName);
-                        stream.unread(bLength);
-                        ancillary.write(stream.readNBytes(length + 12));
-                    }
-                    case "IDAT", "fdAT" -> {
-                        var data = new ByteArrayOutputStream();
-                        var img = new ByteArrayOutputStream();
-
-                        do {
-                            if (name.equals("IDAT")) {
-                                stream.unread(bName);
-                                stream.unread(bLength);
-                                data.write(stream.readNBytes(length + 12));
-                            } else {
-                                stream.skipNBytes(4);
-                                data.write(Chunk.createIDAT(stream.readNBytes(length - 4)));
-                                stream.skipNBytes(4);
-                            }
-                            bLength = stream.readNBytes(4);
-                            length = ByteBuffer.wrap(bLength).getInt();
-                            bName = stream.readNBytes(4);
-
-                        } while (new String(bName).equals(name));
-                        stream.unread(bName);
-                        stream.unread(bLength);
-
-                        img.write(SIGNATURE);
-                        img.write(bHeader);
-                        img.write(ancillary.toByteArray());
-                        img.write(data.toByteArray());
-                        img.write(IEND);
-
-                        frame.image = ImageIO.read(new ByteArrayInputStream(img.toByteArray()));
-                        frame.width = frame.image.getWidth();
-                        frame.height = frame.image.getHeight();
-                        images.add(frame);
-                    }
-                    default -> stream.skipNBytes(length + 4);
-                }
-            }
-        }
-
-        return images;
-    }
-
     /**
      * Merges frames on top of each other depending on dispose_op and blend_op, simulating animation rendering.
+     * Use {@code Compositor} directly to render frames into reused buffers instead of new images.
      *
-     * @param frames       Frames list.
+     * @param frames       Frames list, which is not changed.
      * @param includeFirst if true the images will be as if the static image was included into the animation
      *                     (does not depend on whether a static image is included in the animation).
      * @return Frames list that are written in APNG as they are (always return static image first).
-     * @see BufferedImage
+     * @see Compositor
      */
     public static ArrayList<BufferedImage> mergeFrames(ArrayList<Frame> frames, boolean includeFirst) {
         ArrayList<BufferedImage> list = new ArrayList<>();
         list.add(frames.getFirst().image);
 
-        final int width = frames.getFirst().image.getWidth(),
-                height = frames.getFirst().image.getHeight(),
-                type = BufferedImage.TYPE_INT_ARGB;
-        int x, y;
-        byte dispose, blend;
-
-        BufferedImage background = new BufferedImage(width, height, type);
-        Graphics2D bkg = (Graphics2D) background.getGraphics();
-        bkg.setBackground(TRANSPARENT);
-
-        if (!includeFirst)
-            frames.removeFirst();
-
-        for (Frame frame : frames) {
-            var result = new BufferedImage(width, height, type);
-
-            x = frame.x;
-            y = frame.y;
-            dispose = frame.dispose;
-            blend = frame.blend;
-
-            Graphics2D res = (Graphics2D) result.getGraphics();
-            res.setBackground(TRANSPARENT);
-            res.drawImage(background, 0, 0, null);
-            if (blend == 0)
-                res.clearRect(x, y, frame.width, frame.height);
-            res.drawImage(frame.image, x, y, frame.width, frame.height, null);
-
-            switch (dispose) {
-                case 0, 1 -> {
-                    bkg.clearRect(0, 0, background.getWidth(), background.getHeight());
-                    bkg.drawImage(result, 0, 0, null);
+        Compositor compositor = new Compositor(frames.getFirst().image.getWidth(),
+                frames.getFirst().image.getHeight());
 
-                    if (dispose == 1)
-                        bkg.clearRect(x, y, frame.width, frame.height);
-                }
-            }
-            list.add(result);
+        for (Frame frame : frames.subList(includeFirst ? 0 : 1, frames.size())) {
+            compositor.render(frame);
+            list.add(compositor.toImage());
         }
 
         return list;
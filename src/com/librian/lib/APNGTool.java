@@ -0,0 +1,541 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import static com.librian.lib.APNGCollector.*;
+import static com.librian.lib.Chunk.*;
+
+/**
+ * Command-line tool that processes any number of files in one JVM.
+ * <pre>
+ * java -jar APNG-1.0.jar &lt;command&gt; [options] &lt;input&gt;...
+ *
+ * build     makes an APNG of every input directory from its PNG files in the order of their names.
+ * split     writes the frames of every APNG as PNG files, as they are displayed or, with --raw, as they are stored.
+ * probe     prints the size, number of frames, plays and duration of every APNG.
+ * optimize  encodes every APNG again with the optimization of frames; the original is kept if it is smaller.
+ * resize    fits every APNG into the size given by --size.
+ *
+ * -o, --output DIR     directory of the results, required except for probe.
+ * --threads N          number of files processed at the same time, the number of processors by default.
+ * --memory SIZE        estimated memory of the files processed at the same time, e.g. 512m or 2g;
+ *                      half of the maximum heap by default.
+ * --delay N/D          delay of every frame of build as a fraction of a second, or N milliseconds;
+ *                      1/10 by default.
+ * --plays N            number of plays of build, 0 (infinite) by default.
+ * --level N            compression level from 0 to 9.
+ * --optimize           optimizes the frames of build.
+ * --raw                makes split write frames as they are stored.
+ * --size WxH           bounding box of resize.
+ * </pre>
+ * An input that starts with {@code @} is a manifest: a text file with one input per line, relative to its directory;
+ * blank lines and lines that start with {@code #} are skipped. Except for build, an input directory stands for
+ * the PNG files in it.
+ * Results are named after the inputs; an input whose result has the same name as the result of an earlier input
+ * fails instead of overwriting it. Every frame of build must have the size of the first one.
+ * <p>
+ * Files are processed by a work-stealing pool, one file per thread. Before a file is submitted, its memory is
+ * estimated from its header and taken from the memory limit; the next file waits until enough memory is returned
+ * by the files in progress. Errors are reported for every file and do not stop the others. A summary of throughput
+ * is printed to the standard error stream at the end. The exit status is 0 if every file succeeded, 1 if any failed
+ * and 2 if the arguments are invalid.
+ */
+public final class APNGTool {
+    private final Options options;
+    private final PrintStream out, err;
+    private final AtomicLong files = new AtomicLong(),
+                             failed = new AtomicLong(),
+                             frames = new AtomicLong(),
+                             read = new AtomicLong(),
+                             written = new AtomicLong();
+
+    private APNGTool(Options options, PrintStream out, PrintStream err) {
+        this.options = options;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Runs the tool and exits with its status.
+     *
+     * @param args command, options and inputs.
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the tool.
+     *
+     * @param args arguments of the command line.
+     * @param out  stream of the results of probe.
+     * @param err  stream of errors and the summary.
+     * @return exit status.
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        Options options;
+        List<Path> inputs;
+        try {
+            options = Options.parse(args);
+            inputs = options.inputs();
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println("Usage: java -jar APNG.jar build|split|probe|optimize|resize [options] <input>...");
+            return 2;
+        } catch (IOException e) {
+            err.println(e);
+            return 2;
+        }
+
+        try {
+            if (options.output != null)
+                Files.createDirectories(options.output);
+            return new APNGTool(options, out, err).processAll(inputs);
+        } catch (IOException e) {
+            err.println(e);
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Interrupted");
+            return 1;
+        }
+    }
+
+    /**
+     * Submits the inputs to the pool as soon as their estimated memory is available.
+     */
+    private int processAll(List<Path> inputs) throws InterruptedException {
+        final int limit = (int) Math.min(Integer.MAX_VALUE, Math.max(1, options.memory >> 10));
+        final Semaphore memory = new Semaphore(limit, true);
+        final long start = System.nanoTime();
+
+        // Results are named after the inputs, so inputs of the same name would overwrite each other's results.
+        final Set<Path> targets = new HashSet<>();
+        ExecutorService pool = Executors.newWorkStealingPool(options.threads);
+        try {
+            for (Path input : inputs) {
+                int permits;
+                try {
+                    if (options.output != null && !targets.add(target(input).toAbsolutePath().normalize()))
+                        throw new IOException("Another input has the same result: " + target(input));
+                    permits = (int) Math.min(limit, Math.max(1, estimate(input) >> 10));
+                } catch (IOException | RuntimeException e) {
+                    fail(input, e);
+                    continue;
+                }
+                memory.acquire(permits);
+                pool.execute(() -> {
+                    try {
+                        frames.addAndGet(process(input));
+                        files.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        fail(input, e);
+                    } finally {
+                        memory.release(permits);
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+                ;
+        }
+
+        final double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        err.printf(Locale.ROOT, "%d files (%d failed), %d frames, %.2f MB read, %.2f MB written in %.2f s: "
+                        + "%.1f files/s, %.1f frames/s, %.2f MB/s%n",
+                files.get() + failed.get(), failed.get(), frames.get(), read.get() / 1e6, written.get() / 1e6,
+                seconds, files.get() / seconds, frames.get() / seconds, read.get() / 1e6 / seconds);
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    private void fail(Path input, Exception e) {
+        failed.incrementAndGet();
+        err.println(input + ": " + (e instanceof UncheckedIOException u ? u.getCause() : e));
+    }
+
+    /**
+     * Estimates the memory that processing of the input takes: the decoded canvases and frames, and the files
+     * that are read into memory or written from it.
+     *
+     * @return number of bytes.
+     */
+    private long estimate(Path input) throws IOException {
+        if (options.command.equals("probe"))
+            return 64 << 10;
+        if (options.command.equals("build")) {
+            List<Path> list = frames(input);
+            long size = 0;
+            for (Path frame : list)
+                size += Files.size(frame);
+            APNGInfo info = APNGInfo.probe(list.getFirst(), false);
+            return 3L * 4 * info.getWidth() * info.getHeight() + size;
+        }
+
+        APNGInfo info = APNGInfo.probe(input, false);
+        final long canvas = 4L * info.getWidth() * info.getHeight();
+        return switch (options.command) {
+            case "optimize" -> 6 * canvas + 2 * Files.size(input);
+            default -> 3 * canvas + Files.size(input);
+        };
+    }
+
+    /**
+     * @return number of frames.
+     */
+    private long process(Path input) throws IOException {
+        return switch (options.command) {
+            case "build" -> build(input);
+            case "split" -> split(input);
+            case "probe" -> probe(input);
+            case "optimize" -> optimize(input);
+            case "resize" -> resize(input);
+            default -> throw new IllegalStateException(options.command);
+        };
+    }
+
+    private long build(Path directory) throws IOException {
+        List<Path> list = frames(directory);
+        Path target = checkTarget(directory);
+
+        // An APNG with a frame larger than the canvas is invalid, so the sizes are checked before it is written.
+        APNGInfo canvas = APNGInfo.probe(list.getFirst(), false);
+        for (Path frame : list.subList(1, list.size())) {
+            APNGInfo info = APNGInfo.probe(frame, false);
+            if (info.getWidth() != canvas.getWidth() || info.getHeight() != canvas.getHeight())
+                throw new IOException(frame + " is " + info.getWidth() + "x" + info.getHeight() + ", not "
+                        + canvas.getWidth() + "x" + canvas.getHeight() + " as " + list.getFirst());
+        }
+
+        try (FileChannel channel = create(target)) {
+            BufferedImage first = image(list.getFirst());
+            APNGCollector collector = new APNGCollector(channel, first, options.plays,
+                    options.numerator, options.denominator, APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+            configure(collector);
+            collector.setOptimize(options.optimize);
+            for (Path frame : list.subList(1, list.size()))
+                collector.addFrame(image(frame), options.numerator, options.denominator);
+            collector.close();
+            written.addAndGet(channel.size());
+        }
+        return list.size();
+    }
+
+    private long split(Path input) throws IOException {
+        final String stem = stem(input);
+        final Path directory = checkTarget(input);
+        Files.createDirectories(directory);
+        read.addAndGet(Files.size(input));
+
+        long count = 0;
+        PNGEncoder encoder = new PNGEncoder(options.level, PNG_FILTER_NONE, PixelFormat.RGBA_8);
+        try (APNGReader reader = new APNGReader(input)) {
+            Iterator<BufferedImage> images = options.raw ? reader.stream().map(f -> f.image).iterator()
+                                                         : reader.composited();
+            while (images.hasNext()) {
+                Path file = directory.resolve(String.format(Locale.ROOT, "%s_%04d.png", stem, count++));
+                written.addAndGet(writePNG(encoder, images.next(), file));
+            }
+        } finally {
+            encoder.end();
+        }
+        return count;
+    }
+
+    private long probe(Path input) throws IOException {
+        read.addAndGet(Files.size(input));
+        APNGInfo info = APNGInfo.probe(input, true);
+        out.printf(Locale.ROOT, "%s\t%dx%d\t%d frames\t%d plays\t%d ms%n", input, info.getWidth(), info.getHeight(),
+                info.getFrameCount(), info.getPlays(), info.getDuration().toMillis());
+        return info.getFrameCount();
+    }
+
+    private long optimize(Path input) throws IOException {
+        final Path target = checkTarget(input);
+        final long size = Files.size(input);
+        read.addAndGet(size);
+
+        long count;
+        try (APNGReader reader = new APNGReader(input);
+             FileChannel channel = create(target)) {
+            Frame first = reader.next();
+            APNGCollector collector = first.animated || reader.getFrameCount() == 0
+                    ? new APNGCollector(channel, first.image, reader.getPlays(), first.numerator,
+                            first.denominator, first.dispose, first.blend)
+                    : new APNGCollector(channel, first.image, reader.getPlays());
+            configure(collector);
+            collector.setOptimize(true);
+            count = 1;
+            while (reader.hasNext()) {
+                Frame frame = reader.next();
+                collector.addFrame(frame.image, frame.x, frame.y, frame.numerator, frame.denominator,
+                        frame.dispose, frame.blend);
+                ++count;
+            }
+            collector.close();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (Files.size(target) >= size)
+            Files.copy(input, target, StandardCopyOption.REPLACE_EXISTING);
+        written.addAndGet(Files.size(target));
+        return count;
+    }
+
+    private long resize(Path input) throws IOException {
+        final Path target = checkTarget(input);
+        read.addAndGet(Files.size(input));
+
+        APNGResizer resizer = new APNGResizer(options.width, options.height);
+        // Files are processed in parallel already, so every stage of a file runs on its thread.
+        resizer.setExecutor(Runnable::run);
+        if (options.level != Deflater.DEFAULT_COMPRESSION)
+            resizer.setCompressionLevel(options.level);
+        resizer.resize(input, target);
+
+        written.addAndGet(Files.size(target));
+        return APNGInfo.probe(target, false).getFrameCount();
+    }
+
+    private void configure(APNGCollector collector) {
+        // Files are processed in parallel already, so frames are encoded on the thread of the file.
+        collector.setExecutor(Runnable::run);
+        collector.setCompressionLevel(options.level);
+    }
+
+    /**
+     * @return PNG files of the directory in the order of their names.
+     */
+    private static List<Path> frames(Path directory) throws IOException {
+        List<Path> list = pngs(directory);
+        if (list.isEmpty())
+            throw new IOException("No PNG files in " + directory);
+        return list;
+    }
+
+    private static List<Path> pngs(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".png")
+                                     && Files.isRegularFile(f))
+                        .sorted()
+                        .toList();
+        }
+    }
+
+    /**
+     * Reads the static image of a PNG file.
+     */
+    private BufferedImage image(Path file) throws IOException {
+        read.addAndGet(Files.size(file));
+        try (APNGReader reader = new APNGReader(file)) {
+            return reader.next().image;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return path of the result in the output directory: the APNG of build, the directory of the frames of split,
+     *         or the file of the same name.
+     */
+    private Path target(Path input) {
+        return options.output.resolve(switch (options.command) {
+            case "build" -> input.getFileName() + ".png";
+            case "split" -> stem(input);
+            default -> input.getFileName().toString();
+        });
+    }
+
+    /**
+     * @return path of the result in the output directory.
+     * @throws IOException if the result would replace the input.
+     */
+    private Path checkTarget(Path input) throws IOException {
+        Path target = target(input);
+        if (Files.exists(target) && Files.isSameFile(target, input))
+            throw new IOException("The result would replace the input: " + target);
+        return target;
+    }
+
+    private static FileChannel create(Path target) throws IOException {
+        return FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static String stem(Path file) {
+        final String name = file.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Writes the image as a non-animated RGBA PNG.
+     *
+     * @return number of bytes written.
+     */
+    private static long writePNG(PNGEncoder encoder, BufferedImage image, Path file) throws IOException {
+        final byte[] data = encoder.encode(image);
+        final ChunkWriter writer = new ChunkWriter();
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file))) {
+            stream.write(SIGNATURE);
+            writer.writeIHDR(stream, image.getWidth(), image.getHeight(),
+                    PixelFormat.RGBA_8.getBitDepth(), PixelFormat.RGBA_8.getColorType());
+            writer.writeChunk(stream, IDAT_TYPE, data, 0, data.length);
+            stream.write(IEND);
+        }
+        return SIGNATURE.length + 25 + 12 + data.length + IEND.length;
+    }
+
+    /**
+     * Parsed command line.
+     */
+    private static final class Options {
+        String command;
+        Path output;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memory = Runtime.getRuntime().maxMemory() / 2;
+        short numerator = 1, denominator = 10;
+        int plays;
+        int level = Deflater.DEFAULT_COMPRESSION;
+        boolean optimize, raw;
+        int width, height;
+        final List<String> arguments = new ArrayList<>();
+
+        /**
+         * @throws IllegalArgumentException if the arguments are invalid.
+         */
+        static Options parse(String[] args) {
+            if (args.length == 0)
+                throw new IllegalArgumentException("No command");
+            Options options = new Options();
+            options.command = args[0];
+            if (!List.of("build", "split", "probe", "optimize", "resize").contains(options.command))
+                throw new IllegalArgumentException("Unknown command: " + options.command);
+
+            for (int i = 1; i < args.length; ++i) {
+                final String arg = args[i];
+                if (!arg.startsWith("-")) {
+                    options.arguments.add(arg);
+                    continue;
+                }
+                if (arg.equals("--optimize")) {
+                    options.optimize = true;
+                    continue;
+                }
+                if (arg.equals("--raw")) {
+                    options.raw = true;
+                    continue;
+                }
+                if (i + 1 == args.length)
+                    throw new IllegalArgumentException("Missing value of " + arg);
+                final String value = args[++i];
+                try {
+                    switch (arg) {
+                        case "-o", "--output" -> options.output = Path.of(value);
+                        case "--threads" -> options.threads = positive(arg, Integer.parseInt(value));
+                        case "--memory" -> options.memory = size(value);
+                        case "--plays" -> options.plays = Math.max(0, Integer.parseInt(value));
+                        case "--level" -> {
+                            options.level = Integer.parseInt(value);
+                            if (options.level < 0 || options.level > 9)
+                                throw new IllegalArgumentException("Invalid compression level: " + value);
+                        }
+                        case "--delay" -> {
+                            final int slash = value.indexOf('/');
+                            options.numerator = Short.parseShort(slash < 0 ? value : value.substring(0, slash));
+                            options.denominator = slash < 0 ? 1000 : Short.parseShort(value.substring(slash + 1));
+                        }
+                        case "--size" -> {
+                            final int x = value.toLowerCase(Locale.ROOT).indexOf('x');
+                            if (x < 0)
+                                throw new IllegalArgumentException("Invalid size: " + value);
+                            options.width = positive(arg, Integer.parseInt(value.substring(0, x)));
+                            options.height = positive(arg, Integer.parseInt(value.substring(x + 1)));
+                        }
+                        default -> throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value of " + arg + ": " + value);
+                }
+            }
+
+            if (options.arguments.isEmpty())
+                throw new IllegalArgumentException("No inputs");
+            if (options.output == null && !options.command.equals("probe"))
+                throw new IllegalArgumentException("Output directory is required: -o DIR");
+            if (options.command.equals("resize") && options.width == 0)
+                throw new IllegalArgumentException("Size is required: --size WxH");
+            return options;
+        }
+
+        /**
+         * Expands manifests and, except for build, directories.
+         *
+         * @return paths of the inputs.
+         * @throws IOException if a manifest or a directory cannot be read.
+         */
+        List<Path> inputs() throws IOException {
+            List<Path> inputs = new ArrayList<>();
+            for (String arg : arguments)
+                if (arg.startsWith("@")) {
+                    Path manifest = Path.of(arg.substring(1)).toAbsolutePath();
+                    for (String line : Files.readAllLines(manifest)) {
+                        line = line.strip();
+                        if (!line.isEmpty() && !line.startsWith("#"))
+                            add(inputs, manifest.getParent().resolve(line));
+                    }
+                } else
+                    add(inputs, Path.of(arg));
+            return inputs;
+        }
+
+        private void add(List<Path> inputs, Path path) throws IOException {
+            if (!command.equals("build") && Files.isDirectory(path))
+                inputs.addAll(pngs(path));
+            else
+                inputs.add(path);
+        }
+
+        private static int positive(String option, int value) {
+            if (value <= 0)
+                throw new IllegalArgumentException("Value of " + option + " must be positive: " + value);
+            return value;
+        }
+
+        /**
+         * @param value number of bytes with an optional suffix k, m or g.
+         */
+        private static long size(String value) {
+            final String lower = value.toLowerCase(Locale.ROOT);
+            final int shift = lower.endsWith("k") ? 10 : lower.endsWith("m") ? 20 : lower.endsWith("g") ? 30 : 0;
+            final long number = Long.parseLong(shift == 0 ? lower : lower.substring(0, lower.length() - 1));
+            if (number <= 0)
+                throw new IllegalArgumentException("Invalid memory size: " + value);
+            return number << shift;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.librian.lib;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import static com.librian.lib.Chunk.*;
+
+/**
+ * Writes chunks straight into a stream or a buffer: length, type, data and CRC,
+ * without building the chunk in an intermediate array.
+ * <p>
+ * Every instance has its own {@code CRC32} and header buffer, so instances used by different threads
+ * do not share any state; one instance is not thread-safe.
+ */
+class ChunkWriter {
+    private final CRC32 crc = new CRC32();
+    // Length, type and the largest fixed data of a chunk written here, which is fcTL chunk.
+    private final ByteBuffer head = ByteBuffer.allocate(34);
+    private final byte[] tail = new byte[4];
+    private byte[] transfer;
+
+    /**
+     * Writes IHDR chunk; compression, filter and interlace methods are 0.
+     *
+     * @param width  image width.
+     * @param height image height.
+     * @param depth  bit depth.
+     * @param type   colour type.
+     */
+    void writeIHDR(OutputStream out, int width, int height, byte depth, byte type) throws IOException {
+        header(width, height, depth, type);
+        end(out, null, 0, 0);
+    }
+
+    /**
+     * @see ChunkWriter#writeIHDR(OutputStream, int, int, byte, byte)
+     */
+    void writeIHDR(ByteBuffer out, int width, int height, byte depth, byte type) {
+        header(width, height, depth, type);
+        end(out, null, 0, 0);
+    }
+
+    /**
+     * Writes acTL chunk.
+     *
+     * @param frames number of frames in animation. Must equal the number of fcTL chunks.
+     * @param plays  number of times that this animation should play.
+     */
+    void writeAcTL(OutputStream out, int frames, int plays) throws IOException {
+        begin(8, ACTL_TYPE).putInt(frames).putInt(plays);
+        end(out, null, 0, 0);
+    }
+
+    /**
+     * @see ChunkWriter#writeAcTL(OutputStream, int, int)
+     */
+    void writeAcTL(ByteBuffer out, int frames, int plays) {
+        begin(8, ACTL_TYPE).putInt(frames).putInt(plays);
+        end(out, null, 0, 0);
+    }
+
+    /**
+     * Writes fcTL chunk.
+     *
+     * @param sequence    chunk sequence number.
+     * @param width       frame width.
+     * @param height      frame height.
+     * @param x           frame pos x offset.
+     * @param y           frame pos y offset.
+     * @param numerator   numerator of the delay fraction.
+     * @param denominator denominator of the delay fraction.
+     * @param dispose     type of frame area disposal.
+     * @param blend       type of frame area blending.
+     */
+    void writeFcTL(OutputStream out, int sequence, int width, int height, int x, int y,
+                   short numerator, short denominator, byte dispose, byte blend) throws IOException {
+        control(sequence, width, height, x, y, numerator, denominator, dispose, blend);
+        end(out, null, 0, 0);
+    }
+
+    /**
+     * @see ChunkWriter#writeFcTL(OutputStream, int, int, int, int, int, short, short, byte, byte)
+     */
+    void writeFcTL(ByteBuffer out, int sequence, int width, int height, int x, int y,
+                   short numerator, short denominator, byte dispose, byte blend) {
+        control(sequence, width, height, x, y, numerator, denominator, dispose, blend);
+        end(out, null, 0, 0);
+    }
+
+    /**
+     * Writes fdAT chunk.
+     *
+     * @param sequence chunk sequence number.
+     * @param data     compressed image data, as in IDAT chunk.
+     */
+    void writeFdAT(OutputStream out, int sequence, byte[] data, int offset, int length) throws IOException {
+        begin(length + 4, FDAT_TYPE).putInt(sequence);
+        end(out, data, offset, length);
+    }
+
+    /**
+     * @see ChunkWriter#writeFdAT(OutputStream, int, byte[], int, int)
+     */
+    void writeFdAT(ByteBuffer out, int sequence, byte[] data, int offset, int length) {
+        begin(length + 4, FDAT_TYPE).putInt(sequence);
+        end(out, data, offset, length);
+    }
+
+    /**
+     * Writes a chunk of the type, such as IDAT chunk.
+     *
+     * @param type chunk type as a big-endian integer.
+     * @param data chunk data.
+     */
+    void writeChunk(OutputStream out, int type, byte[] data, int offset, int length) throws IOException {
+        begin(length, type);
+        end(out, data, offset, length);
+    }
+
+    /**
+     * @see ChunkWriter#writeChunk(OutputStream, int, byte[], int, int)
+     */
+    void writeChunk(ByteBuffer out, int type, byte[] data, int offset, int length) {
+        begin(length, type);
+        end(out, data, offset, length);
+    }
+
+    /**
+     * @param data compressed image data from its position to its limit; the position is not changed.
+     * @see ChunkWriter#writeFdAT(OutputStream, int, byte[], int, int)
+     */
+    void writeFdAT(OutputStream out, int sequence, ByteBuffer data) throws IOException {
+        begin(data.remaining() + 4, FDAT_TYPE).putInt(sequence);
+        end(out, data);
+    }
+
+    /**
+     * @param data chunk data from its position to its limit; the position is not changed.
+     * @see ChunkWriter#writeChunk(OutputStream, int, byte[], int, int)
+     */
+    void writeChunk(OutputStream out, int type, ByteBuffer data) throws IOException {
+        begin(data.remaining(), type);
+        end(out, data);
+    }
+
+    /**
+     * Writes PLTE chunk of the palette.
+     *
+     * @param palette ARGB colours.
+     */
+    void writePLTE(OutputStream out, int[] palette) throws IOException {
+        byte[] data = new byte[palette.length * 3];
+        for (int i = 0, j = 0; i < palette.length; ++i) {
+            data[j++] = (byte) (palette[i] >>> 16);
+            data[j++] = (byte) (palette[i] >>> 8);
+            data[j++] = (byte) palette[i];
+        }
+        writeChunk(out, PLTE_TYPE, data, 0, data.length);
+    }
+
+    /**
+     * Writes tRNS chunk with alpha of the palette colours, up to the last colour that is not opaque.
+     * Nothing is written if every colour is opaque.
+     *
+     * @param palette ARGB colours.
+     */
+    void writeTRNS(OutputStream out, int[] palette) throws IOException {
+        int length = palette.length;
+        while (length > 0 && palette[length - 1] >>> 24 == 255)
+            --length;
+        if (length == 0)
+            return;
+
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i)
+            data[i] = (byte) (palette[i] >>> 24);
+        writeChunk(out, TRNS_TYPE, data, 0, length);
+    }
+
+    private void header(int width, int height, byte depth, byte type) {
+        begin(13, IHDR_TYPE).putInt(width).putInt(height).put(depth).put(type).put((byte) 0).put((byte) 0).put((byte) 0);
+    }
+
+    private void control(int sequence, int width, int height, int x, int y,
+                         short numerator, short denominator, byte dispose, byte blend) {
+        begin(26, FCTL_TYPE).putInt(sequence).putInt(width).putInt(height).putInt(x).putInt(y)
+                .putShort(numerator).putShort(denominator).put(dispose).put(blend);
+    }
+
+    /**
+     * Starts the chunk in the header buffer.
+     *
+     * @param length length of the whole chunk data.
+     * @param type   chunk type.
+     * @return header buffer for the fixed part of the data.
+     */
+    private ByteBuffer begin(int length, int type) {
+        return head.clear().putInt(length).putInt(type);
+    }
+
+    /**
+     * Computes CRC of the type, the fixed part of the data and the rest of the data.
+     */
+    private void crc(byte[] data, int offset, int length) {
+        crc.reset();
+        crc.update(head.array(), 4, head.position() - 4);
+        if (length > 0)
+            crc.update(data, offset, length);
+        tail();
+    }
+
+    /**
+     * @see ChunkWriter#crc(byte[], int, int)
+     */
+    private void crc(ByteBuffer data) {
+        crc.reset();
+        crc.update(head.array(), 4, head.position() - 4);
+        crc.update(data.duplicate());
+        tail();
+    }
+
+    private void tail() {
+        final int value = (int) crc.getValue();
+        tail[0] = (byte) (value >>> 24);
+        tail[1] = (byte) (value >>> 16);
+        tail[2] = (byte) (value >>> 8);
+        tail[3] = (byte) value;
+    }
+
+    /**
+     * Writes the header buffer, the rest of the data and CRC.
+     */
+    private void end(OutputStream out, byte[] data, int offset, int length) throws IOException {
+        crc(data, offset, length);
+        out.write(head.array(), 0, head.position());
+        if (length > 0)
+            out.write(data, offset, length);
+        out.write(tail);
+    }
+
+    /**
+     * @see ChunkWriter#end(OutputStream, byte[], int, int)
+     */
+    private void end(OutputStream out, ByteBuffer data) throws IOException {
+        crc(data);
+        out.write(head.array(), 0, head.position());
+        copy(out, data);
+        out.write(tail);
+    }
+
+    /**
+     * @see ChunkWriter#end(OutputStream, byte[], int, int)
+     */
+    private void end(ByteBuffer out, byte[] data, int offset, int length) {
+        crc(data, offset, length);
+        out.put(head.array(), 0, head.position());
+        if (length > 0)
+            out.put(data, offset, length);
+        out.put(tail);
+    }
+
+    /**
+     * Writes the bytes from the position to the limit of the buffer; the position is not changed.
+     */
+    void copy(OutputStream out, ByteBuffer bytes) throws IOException {
+        if (bytes.hasArray()) {
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            return;
+        }
+
+        if (transfer == null)
+            transfer = new byte[8192];
+        for (ByteBuffer source = bytes.duplicate(); source.hasRemaining(); ) {
+            int n = Math.min(transfer.length, source.remaining());
+            source.get(transfer, 0, n);
+            out.write(transfer, 0, n);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.librian.lib;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache of composited frames of decoded animations, addressed by the content of the animation: SHA-256 of its
+ * encoded data and the index of the frame. Animations decoded separately from the same data share their frames.
+ * <p>
+ * The cache holds at most {@code capacity} bytes of pixels and evicts the least recently used frames. It is
+ * thread-safe and can be shared by any number of animations and threads; it is guarded by a lock instead of
+ * {@code synchronized}, so virtual threads that wait for it do not pin their carrier threads.
+ *
+ * @see APNGAnimation
+ * @see FrameCache
+ */
+public final class CompositeCache {
+    /**
+     * System property with the capacity of the shared cache in bytes.
+     */
+    public static final String CAPACITY_PROPERTY = "com.librian.apng.compositeCache";
+
+    private static final class Shared {
+        static final CompositeCache INSTANCE = new CompositeCache(Long.getLong(CAPACITY_PROPERTY,
+                Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 8)));
+    }
+
+    private final long capacity;
+    private final LinkedHashMap<Key, int[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long size, hits, misses, evictions;
+
+    /**
+     * @param capacity maximum number of bytes of pixels held by the cache.
+     * @throws IllegalArgumentException if the capacity is negative.
+     */
+    public CompositeCache(long capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cache of the process, which {@code APNGAnimation} uses by default. Its capacity is set by
+     * the system property {@value #CAPACITY_PROPERTY}; by default it is an eighth of the maximum heap, at most 256 MiB.
+     *
+     * @return shared cache.
+     */
+    public static CompositeCache getShared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * @return maximum number of bytes of pixels held by the cache.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of bytes of pixels held by the cache.
+     */
+    public long getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of frames held by the cache.
+     */
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of frames that were found in the cache.
+     */
+    public long getHitCount() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of frames that were not found in the cache and were composited.
+     */
+    public long getMissCount() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of frames removed to keep the cache within its capacity.
+     */
+    public long getEvictionCount() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return ratio of hits to all lookups, or 0 if there were no lookups.
+     */
+    public double getHitRate() {
+        lock.lock();
+        try {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every frame from the cache; the statistics are kept.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "CompositeCache{" + entries.size() + " frames, " + size + "/" + capacity + " bytes, hits=" + hits
+                    + ", misses=" + misses + ", evictions=" + evictions + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks the frame up and counts a hit or a miss.
+     *
+     * @param key key of the frame.
+     * @return pixels of the canvas, which must not be modified, or null if the frame is not in the cache.
+     */
+    int[] get(Key key) {
+        lock.lock();
+        try {
+            int[] pixels = entries.get(key);
+            if (pixels == null)
+                ++misses;
+            else
+                ++hits;
+            return pixels;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks the frame up without counting it in the statistics.
+     *
+     * @param key key of the frame.
+     * @return pixels of the canvas, which must not be modified, or null if the frame is not in the cache.
+     */
+    int[] peek(Key key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores the pixels and evicts the least recently used frames beyond the capacity.
+     * Pixels larger than the capacity are not stored.
+     *
+     * @param key    key of the frame.
+     * @param pixels pixels of the canvas, which must not be modified afterward.
+     */
+    void put(Key key, int[] pixels) {
+        final long bytes = 4L * pixels.length;
+        if (bytes > capacity)
+            return;
+
+        lock.lock();
+        try {
+            int[] old = entries.put(key, pixels);
+            if (old != null)
+                size -= 4L * old.length;
+            size += bytes;
+
+            for (Iterator<int[]> it = entries.values().iterator(); size > capacity; ++evictions) {
+                size -= 4L * it.next().length;
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Digest of the encoded animation and index of the frame.
+     */
+    static final class Key {
+        private final byte[] digest;
+        private final int index, hash;
+
+        /**
+         * @param digest SHA-256 of the encoded animation, which must not be modified.
+         * @param hash   {@code Arrays.hashCode(digest)}.
+         * @param index  index of the frame.
+         */
+        Key(byte[] digest, int hash, int index) {
+            this.digest = digest;
+            this.index = index;
+            this.hash = hash * 31 + index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && index == key.index && Arrays.equals(digest, key.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
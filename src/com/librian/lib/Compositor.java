@@ -0,0 +1,241 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * Renders APNG frames onto a canvas of non-premultiplied ARGB pixels, as an animation would be displayed.
+ * <p>
+ * Keeps one canvas and one buffer for the region saved by {@code APNG_DISPOSE_OP_PREVIOUS};
+ * the disposal of a frame is done right before the next frame is rendered. Only the region of the frame is touched,
+ * and {@code TYPE_INT_ARGB} frames, which {@code APNGReader} returns, are read from their raster without copying,
+ * so once the buffers have grown, rendering frames and copying the canvas into the caller's buffers allocates nothing.
+ *
+ * @see APNGSeparator#mergeFrames(ArrayList, boolean)
+ */
+public class Compositor {
+    final int width, height;
+    final int[] canvas;
+    private int[] saved = new int[0], pixels = new int[0], row = new int[0];
+    private int x, y, w, h;
+    private byte dispose = APNG_DISPOSE_OP_NONE;
+
+    /**
+     * @param width  canvas width.
+     * @param height canvas height.
+     */
+    public Compositor(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.canvas = new int[width * height];
+    }
+
+    /**
+     * @return canvas width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return canvas height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Disposes the previous frame and renders the frame onto the canvas.
+     *
+     * @param frame frame as it is written in APNG.
+     * @throws IllegalArgumentException if the frame is out of the canvas.
+     */
+    public void render(Frame frame) {
+        final int w = frame.width,
+                  h = frame.height;
+        final BufferedImage image = frame.image;
+        final Raster raster = image.getRaster();
+
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && image.getWidth() >= w && image.getHeight() >= h) {
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            int scan = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            render(buffer.getData(), buffer.getOffset(), scan, frame.x, frame.y, w, h, frame.dispose, frame.blend);
+            return;
+        }
+
+        if (pixels.length < w * h)
+            pixels = new int[w * h];
+        if (row.length < w)
+            row = new int[w];
+        for (int j = 0; j < h; ++j) {
+            PNGEncoder.readRow(image, j, row);
+            System.arraycopy(row, 0, pixels, j * w, w);
+        }
+        render(pixels, 0, w, frame.x, frame.y, w, h, frame.dispose, frame.blend);
+    }
+
+    /**
+     * Disposes the previous frame and renders the frame onto the canvas.
+     *
+     * @param pixels  non-premultiplied ARGB pixels of the frame.
+     * @param offset  index of the upper left pixel of the frame.
+     * @param scan    distance between rows in the array.
+     * @param x       frame pos x offset.
+     * @param y       frame pos y offset.
+     * @param w       frame width.
+     * @param h       frame height.
+     * @param dispose type of frame area disposal to be done before the next frame is rendered.
+     * @param blend   type of frame area blending.
+     * @throws IllegalArgumentException if the frame is out of the canvas.
+     */
+    public void render(int[] pixels, int offset, int scan, int x, int y, int w, int h, byte dispose, byte blend) {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > width || y + h > height)
+            throw new IllegalArgumentException(
+                    "Frame " + w + "x" + h + " at " + x + "," + y + " is out of canvas " + width + "x" + height);
+
+        dispose();
+
+        if (dispose == APNG_DISPOSE_OP_PREVIOUS) {
+            if (saved.length < w * h)
+                saved = new int[w * h];
+            copy(canvas, y * width + x, width, saved, 0, w, w, h);
+        }
+
+        if (blend == APNG_BLEND_OP_SOURCE)
+            copy(pixels, offset, scan, canvas, y * width + x, width, w, h);
+        else
+            for (int j = 0; j < h; ++j)
+                for (int i = 0, s = offset + j * scan, d = (y + j) * width + x; i < w; ++i, ++s, ++d)
+                    canvas[d] = over(pixels[s], canvas[d]);
+
+        this.x = x;
+        this.y = y;
+        this.w = w;
+        this.h = h;
+        this.dispose = dispose;
+    }
+
+    /**
+     * Copies the canvas into the caller's buffer.
+     *
+     * @param dst    buffer for non-premultiplied ARGB pixels.
+     * @param offset index of the upper left pixel of the canvas in the buffer.
+     * @param scan   distance between rows in the buffer.
+     */
+    public void copyTo(int[] dst, int offset, int scan) {
+        copy(canvas, 0, width, dst, offset, scan, width, height);
+    }
+
+    /**
+     * Copies the canvas into the upper left corner of the caller's image.
+     *
+     * @param image image at least of the canvas size.
+     * @throws IllegalArgumentException if the image is smaller than the canvas.
+     */
+    public void copyTo(BufferedImage image) {
+        if (image.getWidth() < width || image.getHeight() < height)
+            throw new IllegalArgumentException("Image " + image.getWidth() + "x" + image.getHeight()
+                    + " is smaller than canvas " + width + "x" + height);
+
+        final Raster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            copyTo(buffer.getData(), buffer.getOffset(),
+                    ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride());
+        } else
+            image.setRGB(0, 0, width, height, canvas, 0, width);
+    }
+
+    /**
+     * @return new image of the canvas size with a copy of the canvas.
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        System.arraycopy(canvas, 0, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, canvas.length);
+        return image;
+    }
+
+    /**
+     * Does the disposal of the last rendered frame and copies the canvas,
+     * which is then the canvas the next frame is rendered onto.
+     *
+     * @param dst array of the canvas size.
+     */
+    void save(int[] dst) {
+        dispose();
+        System.arraycopy(canvas, 0, dst, 0, canvas.length);
+    }
+
+    /**
+     * Replaces the canvas; the last rendered frame is not disposed.
+     *
+     * @param src canvas saved by {@link #save(int[])}, or null for a fully transparent canvas.
+     */
+    void restore(int[] src) {
+        if (src == null)
+            Arrays.fill(canvas, 0);
+        else
+            System.arraycopy(src, 0, canvas, 0, canvas.length);
+        dispose = APNG_DISPOSE_OP_NONE;
+    }
+
+    /**
+     * Does the disposal of the last rendered frame.
+     */
+    private void dispose() {
+        switch (dispose) {
+            case APNG_DISPOSE_OP_BACKGROUND -> clear(canvas, width, x, y, w, h);
+            case APNG_DISPOSE_OP_PREVIOUS -> copy(saved, 0, w, canvas, y * width + x, width, w, h);
+        }
+        dispose = APNG_DISPOSE_OP_NONE;
+    }
+
+    /**
+     * Composites the pixel onto the other based on its alpha; both pixels are non-premultiplied ARGB.
+     *
+     * @param src pixel of the frame.
+     * @param dst pixel of the canvas.
+     * @return resulting pixel.
+     */
+    static int over(int src, int dst) {
+        final int sa = src >>> 24,
+                  da = dst >>> 24;
+        if (sa == 0)
+            return dst;
+        if (sa == 255 || da == 0)
+            return src;
+
+        final int f = da * (255 - sa),
+                  a = sa * 255 + f;
+        int r = ((src >>> 16 & 0xFF) * sa * 255 + (dst >>> 16 & 0xFF) * f + a / 2) / a,
+            g = ((src >>> 8 & 0xFF) * sa * 255 + (dst >>> 8 & 0xFF) * f + a / 2) / a,
+            b = ((src & 0xFF) * sa * 255 + (dst & 0xFF) * f + a / 2) / a;
+
+        return (a + 127) / 255 << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Fills the region with fully transparent black.
+     */
+    static void clear(int[] canvas, int width, int x, int y, int w, int h) {
+        for (int j = 0, d = y * width + x; j < h; ++j, d += width)
+            Arrays.fill(canvas, d, d + w, 0);
+    }
+
+    /**
+     * Copies the region of {@code w x h} pixels between arrays with different row lengths.
+     */
+    static void copy(int[] src, int srcOffset, int srcScan, int[] dst, int dstOffset, int dstScan, int w, int h) {
+        for (int j = 0; j < h; ++j)
+            System.arraycopy(src, srcOffset + j * srcScan, dst, dstOffset + j * dstScan, w);
+    }
+}
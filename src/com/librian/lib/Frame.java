@@ -1,6 +1,7 @@
 package com.librian.lib;
 
 import java.awt.image.BufferedImage;
+import java.time.Duration;
 
 /**
  * Represents image and parameters of APNG frame
@@ -13,6 +14,93 @@ public class Frame {
         x,
         y;
 
+    short numerator,
+          denominator;
+
     byte dispose,
          blend;
-}
+
+    /**
+     * True if the frame has fcTL chunk; false only for the static image that is not part of the animation.
+     */
+    boolean animated;
+
+    /**
+     * @return frame width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return frame height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return frame pos x offset.
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * @return frame pos y offset.
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * @return numerator of the delay fraction.
+     */
+    public short getNumerator() {
+        return numerator;
+    }
+
+    /**
+     * @return denominator of the delay fraction; 0 means 100.
+     */
+    public short getDenominator() {
+        return denominator;
+    }
+
+    /**
+     * @return delay of the frame.
+     */
+    public Duration getDelay() {
+        return Duration.ofNanos(delay());
+    }
+
+    /**
+     * @return type of frame area disposal.
+     */
+    public byte getDispose() {
+        return dispose;
+    }
+
+    /**
+     * @return type of frame area blending.
+     */
+    public byte getBlend() {
+        return blend;
+    }
+
+    /**
+     * @return false only for the static image that is not part of the animation.
+     */
+    public boolean isAnimated() {
+        return animated;
+    }
+
+    /**
+     * @return delay of the frame in nanoseconds, rounded.
+     */
+    long delay() {
+        final long n = numerator & 0xFFFF,
+                   d = denominator == 0 ? 100 : denominator & 0xFFFF;
+        return (n * 1_000_000_000L + d / 2) / d;
+    }
+}
\ No newline at end of file
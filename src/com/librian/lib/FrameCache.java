@@ -0,0 +1,199 @@
+package com.librian.lib;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of compressed image data addressed by the content of the frame: SHA-256 of its pixels, its size
+ * and the settings that affect the encoding, i.e. compression level, filter, pixel format and tuning.
+ * A frame found in the cache is not encoded again, the collector only writes new fcTL and fdAT chunks with its data.
+ * <p>
+ * The cache holds at most {@code capacity} bytes of compressed data and evicts the least recently used entries.
+ * It is thread-safe and can be shared by any number of collectors; frames encoded concurrently with the same content
+ * may each be encoded once before the first of them is stored.
+ *
+ * @see APNGCollector#setCache(FrameCache)
+ */
+public final class FrameCache {
+    private final long capacity;
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size, hits, misses, evictions;
+
+    /**
+     * @param capacity maximum number of bytes of compressed data held by the cache.
+     * @throws IllegalArgumentException if the capacity is negative.
+     */
+    public FrameCache(long capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return maximum number of bytes of compressed data held by the cache.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of bytes of compressed data held by the cache.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of frames held by the cache.
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of frames that were found in the cache.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of frames that were not found in the cache and were encoded.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return number of frames removed to keep the cache within its capacity.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return ratio of hits to all lookups, or 0 if there were no lookups.
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Removes every frame from the cache; the statistics are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FrameCache{" + entries.size() + " frames, " + size + "/" + capacity + " bytes, hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + '}';
+    }
+
+    /**
+     * @param key key of the frame.
+     * @return compressed image data, which must not be modified, or null if the frame is not in the cache.
+     */
+    synchronized byte[] get(Key key) {
+        byte[] data = entries.get(key);
+        if (data == null)
+            ++misses;
+        else
+            ++hits;
+        return data;
+    }
+
+    /**
+     * Stores the compressed image data and evicts the least recently used frames beyond the capacity.
+     * Data larger than the capacity is not stored.
+     *
+     * @param key  key of the frame.
+     * @param data compressed image data, which must not be modified afterward.
+     */
+    synchronized void put(Key key, byte[] data) {
+        if (data.length > capacity)
+            return;
+
+        byte[] old = entries.put(key, data);
+        if (old != null)
+            size -= old.length;
+        size += data.length;
+
+        for (Iterator<byte[]> it = entries.values().iterator(); size > capacity; ++evictions) {
+            size -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Computes the key of the frame encoded with the settings.
+     *
+     * @param pixels non-premultiplied ARGB pixels.
+     * @param offset index of the upper left pixel.
+     * @param scan   distance between rows in the array.
+     * @param width  image width.
+     * @param height image height.
+     * @param level  compression level.
+     * @param filter filter type.
+     * @param format pixel format.
+     * @param tuned  if true the frame is encoded by {@code FrameTuner}.
+     * @return key of the frame.
+     */
+    static Key key(int[] pixels, int offset, int scan, int width, int height,
+                   int level, byte filter, PixelFormat format, boolean tuned) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        int[] palette = format.palette();
+        ByteBuffer settings = ByteBuffer.allocate(20 + (palette == null ? 0 : palette.length * 4));
+        settings.putInt(width).putInt(height).putInt(level).put(filter)
+                .put(format.getColorType()).put(format.getBitDepth()).put((byte) (format.isDithered() ? 1 : 0))
+                .put((byte) (tuned ? 1 : 0)).position(20);
+        if (palette != null)
+            settings.asIntBuffer().put(palette);
+        digest.update(settings.array());
+
+        ByteBuffer row = ByteBuffer.allocate(width * 4);
+        IntBuffer ints = row.asIntBuffer();
+        for (int y = 0; y < height; ++y) {
+            ints.clear();
+            ints.put(pixels, offset + y * scan, width);
+            digest.update(row.array());
+        }
+        return new Key(digest.digest());
+    }
+
+    /**
+     * Digest of the frame content and its encoding settings.
+     */
+    static final class Key {
+        private final byte[] digest;
+        private final int hash;
+
+        private Key(byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && Arrays.equals(digest, key.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.librian.lib;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of a frame read by {@code APNGReader}; the duration of the event covers reading
+ * and decoding the frame.
+ *
+ * @see FrameMetrics
+ */
+@Name("com.librian.apng.FrameDecode")
+@Label("APNG Frame Decode")
+@Category("APNG")
+@Description("Frame read by APNGReader")
+@StackTrace(false)
+class FrameDecodeEvent extends Event {
+    @Label("Index")
+    int index;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Read Time")
+    @Timespan
+    long readTime;
+
+    @Label("Decode Time")
+    @Timespan
+    long decodeTime;
+
+    @Label("Raw Size")
+    @DataAmount
+    long rawBytes;
+
+    @Label("Compressed Size")
+    @DataAmount
+    long compressedBytes;
+
+    @Label("Compression Ratio")
+    double compressionRatio;
+
+    @Label("Buffered Size")
+    @DataAmount
+    long bufferedBytes;
+
+    void set(FrameMetrics metrics) {
+        index = metrics.getIndex();
+        width = metrics.getWidth();
+        height = metrics.getHeight();
+        readTime = metrics.getNanos(FrameMetrics.Stage.READ);
+        decodeTime = metrics.getNanos(FrameMetrics.Stage.DECODE);
+        rawBytes = metrics.getRawBytes();
+        compressedBytes = metrics.getCompressedBytes();
+        compressionRatio = metrics.getCompressionRatio();
+        bufferedBytes = metrics.getBufferedBytes();
+    }
+}
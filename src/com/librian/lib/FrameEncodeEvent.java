@@ -0,0 +1,84 @@
+package com.librian.lib;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of a frame written by {@code APNGCollector}; the duration of the event is the write stage.
+ *
+ * @see FrameMetrics
+ */
+@Name("com.librian.apng.FrameEncode")
+@Label("APNG Frame Encode")
+@Category("APNG")
+@Description("Frame written by APNGCollector")
+@StackTrace(false)
+class FrameEncodeEvent extends Event {
+    @Label("Index")
+    int index;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Optimize Time")
+    @Timespan
+    long optimizeTime;
+
+    @Label("Encode Time")
+    @Timespan
+    long encodeTime;
+
+    @Label("Write Time")
+    @Timespan
+    long writeTime;
+
+    @Label("Raw Size")
+    @DataAmount
+    long rawBytes;
+
+    @Label("Compressed Size")
+    @DataAmount
+    long compressedBytes;
+
+    @Label("Compression Ratio")
+    double compressionRatio;
+
+    @Label("Buffered Size")
+    @DataAmount
+    long bufferedBytes;
+
+    @Label("Filter")
+    @Description("Filter type, 5 for adaptive, -1 if not known")
+    byte filter;
+
+    @Label("Compression Level")
+    int level;
+
+    @Label("Deflater Strategy")
+    int strategy;
+
+    void set(FrameMetrics metrics) {
+        index = metrics.getIndex();
+        width = metrics.getWidth();
+        height = metrics.getHeight();
+        optimizeTime = metrics.getNanos(FrameMetrics.Stage.OPTIMIZE);
+        encodeTime = metrics.getNanos(FrameMetrics.Stage.ENCODE);
+        writeTime = metrics.getNanos(FrameMetrics.Stage.WRITE);
+        rawBytes = metrics.getRawBytes();
+        compressedBytes = metrics.getCompressedBytes();
+        compressionRatio = metrics.getCompressionRatio();
+        bufferedBytes = metrics.getBufferedBytes();
+        filter = metrics.getFilter();
+        level = metrics.getCompressionLevel();
+        strategy = metrics.getStrategy();
+    }
+}
@@ -0,0 +1,175 @@
+package com.librian.lib;
+
+/**
+ * Measurements of one encoded or decoded frame: time spent in every stage, number of bytes of image data
+ * before and after compression and the memory held by the collector or the reader.
+ *
+ * @see APNGListener
+ */
+public final class FrameMetrics {
+    /**
+     * Stage of processing a frame.
+     * <pre>
+     * {@summary
+     * OPTIMIZE
+     *   rendering the frame and comparing it with the displayed animation, including the encoding of candidate
+     *   regions; only with {@code APNGCollector.setOptimize(true)}.
+     *
+     * ENCODE
+     *   converting, filtering and compressing the pixels, or looking them up in the frame cache.
+     *
+     * WRITE
+     *   writing fcTL and fdAT (or IDAT) chunks, including waiting for the frame to be encoded on the executor.
+     *
+     * READ
+     *   reading and parsing chunks of the frame.
+     *
+     * DECODE
+     *   inflating, unfiltering and converting image data into pixels.}
+     * </pre>
+     */
+    public enum Stage {
+        OPTIMIZE, ENCODE, WRITE, READ, DECODE
+    }
+
+    private final int index, width, height;
+    private final long[] nanos;
+    private final long rawBytes, compressedBytes, bufferedBytes;
+    private final byte filter;
+    private final int level, strategy;
+
+    /**
+     * @param nanos time of every stage in the order of {@code Stage}.
+     */
+    FrameMetrics(int index, int width, int height, long[] nanos,
+                 long rawBytes, long compressedBytes, long bufferedBytes) {
+        this(index, width, height, nanos, rawBytes, compressedBytes, bufferedBytes, (byte) -1, 0, 0);
+    }
+
+    /**
+     * @param nanos    time of every stage in the order of {@code Stage}.
+     * @param filter   filter the frame was encoded with, or -1.
+     * @param level    compression level the frame was encoded with.
+     * @param strategy {@code Deflater} strategy the frame was encoded with.
+     */
+    FrameMetrics(int index, int width, int height, long[] nanos,
+                 long rawBytes, long compressedBytes, long bufferedBytes, byte filter, int level, int strategy) {
+        this.index = index;
+        this.width = width;
+        this.height = height;
+        this.nanos = nanos;
+        this.rawBytes = rawBytes;
+        this.compressedBytes = compressedBytes;
+        this.bufferedBytes = bufferedBytes;
+        this.filter = filter;
+        this.level = level;
+        this.strategy = strategy;
+    }
+
+    /**
+     * @return index of the frame in the file, 0 for the static image.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return frame width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return frame height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param stage stage of processing.
+     * @return nanoseconds spent in the stage, 0 if the frame did not go through it.
+     */
+    public long getNanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    /**
+     * @return nanoseconds spent in all stages.
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long n : nanos)
+            total += n;
+        return total;
+    }
+
+    /**
+     * @return number of bytes of filtered image data, including the filter type byte of every row.
+     */
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * @return number of bytes of compressed image data in IDAT or fdAT chunks, without chunk headers.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * @return ratio of raw bytes to compressed bytes, or 0 if there is no compressed data.
+     */
+    public double getCompressionRatio() {
+        return compressedBytes == 0 ? 0 : (double) rawBytes / compressedBytes;
+    }
+
+    /**
+     * @return number of bytes held in buffers after the frame: the animation collected in memory by the collector,
+     *         or the chunk and image data buffers of the reader.
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * @return filter the frame was encoded with, one of {@code PNG_FILTER_*} constants of {@code APNGCollector},
+     *         or -1 if it is not known: for decoded frames and for tuned frames found in the frame cache.
+     * @see APNGCollector#setTuning(boolean, java.time.Duration, java.time.Duration)
+     */
+    public byte getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return compression level the frame was encoded with, {@code Deflater.DEFAULT_COMPRESSION} or
+     *         from 0 to 9; meaningful only if the filter is known.
+     */
+    public int getCompressionLevel() {
+        return level;
+    }
+
+    /**
+     * @return {@code Deflater} strategy the frame was encoded with; meaningful only if the filter is known.
+     */
+    public int getStrategy() {
+        return strategy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("FrameMetrics{index=").append(index)
+                .append(", ").append(width).append('x').append(height);
+        for (Stage stage : Stage.values())
+            if (nanos[stage.ordinal()] != 0)
+                builder.append(", ").append(stage.name().toLowerCase()).append('=')
+                        .append(nanos[stage.ordinal()] / 1000).append("us");
+        if (filter >= 0)
+            builder.append(", filter=").append(filter).append(", level=").append(level)
+                    .append(", strategy=").append(strategy);
+        return builder.append(", raw=").append(rawBytes).append(", compressed=").append(compressedBytes)
+                .append(", buffered=").append(bufferedBytes).append('}').toString();
+    }
+}
@@ -0,0 +1,292 @@
+package com.librian.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * Rewrites the frames of an animation so that every frame holds only the region that changed.
+ * <p>
+ * Every added frame is rendered onto a reference canvas and the result is compared with what the optimized
+ * animation displays. The changed bounding box is encoded for every possible disposal of the previous frame and
+ * both blend operations, the smallest encoding is kept. Since the disposal of a frame is chosen only when the next
+ * frame arrives, one frame is always held back; identical consecutive frames are merged by adding their delays.
+ */
+class FrameOptimizer {
+    private static final byte[] DISPOSALS = {APNG_DISPOSE_OP_NONE, APNG_DISPOSE_OP_BACKGROUND, APNG_DISPOSE_OP_PREVIOUS};
+
+    /**
+     * Encoder of ARGB pixels that is safe to call from the executor threads; it records the settings
+     * of the encoding in the frame.
+     */
+    interface Encoder {
+        byte[] encode(int[] pixels, int offset, int scan, int width, int height, APNGCollector.Pending frame);
+    }
+
+    private final int width, height;
+    private final boolean merge, alpha;
+    private final Encoder encoder, refine;
+    private final Executor executor;
+    private final Compositor reference;
+    private int[] target, canvas, before, background, row = new int[0], frame = new int[0];
+    private APNGCollector.Pending last;
+
+    /**
+     * @param width    canvas width.
+     * @param height   canvas height.
+     * @param merge    if true identical consecutive frames are merged.
+     * @param alpha    if true the pixel format can write fully transparent pixels.
+     * @param encoder  encoder of candidate regions.
+     * @param refine   encoder that encodes the chosen region again, or null to keep its encoding as a candidate.
+     * @param executor executor that encodes candidate regions.
+     */
+    FrameOptimizer(int width, int height, boolean merge, boolean alpha, Encoder encoder, Encoder refine,
+                   Executor executor) {
+        this.width = width;
+        this.height = height;
+        this.merge = merge;
+        this.alpha = alpha;
+        this.encoder = encoder;
+        this.refine = refine;
+        this.executor = executor;
+        this.reference = new Compositor(width, height);
+        this.target = new int[width * height];
+        this.canvas = new int[width * height];
+        this.before = new int[width * height];
+        this.background = new int[width * height];
+    }
+
+    /**
+     * Adds the frame as it would be added to a not optimized animation.
+     *
+     * @param w           frame width.
+     * @param h           frame height.
+     * @param rows        supplier of the rows of the frame.
+     * @param x           frame pos x offset.
+     * @param y           frame pos y offset.
+     * @param numerator   numerator of the delay fraction.
+     * @param denominator denominator of the delay fraction.
+     * @param dispose     type of frame area disposal.
+     * @param blend       type of frame area blending.
+     * @param idat        if true and it is the first frame, it is written in IDAT chunk.
+     * @return the previous frame if its parameters are final, otherwise null.
+     */
+    APNGCollector.Pending add(int w, int h, RowSupplier rows, int x, int y,
+                              short numerator, short denominator, byte dispose, byte blend, boolean idat) {
+        final long start = System.nanoTime();
+        if (row.length < w)
+            row = new int[w];
+        if (frame.length < w * h)
+            frame = new int[w * h];
+
+        for (int j = 0; j < h; ++j) {
+            rows.getRow(j, row);
+            System.arraycopy(row, 0, frame, j * w, w);
+        }
+        reference.render(frame, 0, w, x, y, w, h, dispose, blend);
+
+        for (int i = 0; i < target.length; ++i) {
+            int p = reference.canvas[i];
+            target[i] = p >>> 24 == 0 ? 0 : p;
+        }
+        APNGCollector.Pending previous = optimize(numerator, denominator, idat);
+        // Time of a merged frame is added to the frame that absorbs it.
+        last.optimize += System.nanoTime() - start;
+        return previous;
+    }
+
+    /**
+     * @return the last frame, which is disposed with {@code APNG_DISPOSE_OP_NONE}, or null.
+     */
+    APNGCollector.Pending finish() {
+        APNGCollector.Pending frame = last;
+        last = null;
+        return frame;
+    }
+
+    private APNGCollector.Pending optimize(short numerator, short denominator, boolean idat) {
+        if (last == null) {
+            last = pending(0, 0, width, height, numerator, denominator, APNG_BLEND_OP_SOURCE);
+            last.data = CompletableFuture.completedFuture(
+                    (refine != null ? refine : encoder).encode(target, 0, width, width, height, last));
+            last.idat = idat;
+            System.arraycopy(target, 0, canvas, 0, target.length);
+            Arrays.fill(before, 0);
+            return null;
+        }
+
+        if (merge && Arrays.equals(target, canvas) && addDelay(last, numerator, denominator))
+            return null;
+
+        System.arraycopy(canvas, 0, background, 0, canvas.length);
+        Compositor.clear(background, width, last.x, last.y, last.width, last.height);
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (byte dispose : DISPOSALS) {
+            int[] base = base(dispose);
+            int[] box = bounds(base);
+            candidates.add(new Candidate(dispose, box, crop(target, box),
+                    pending(box[0], box[1], box[2], box[3], numerator, denominator, APNG_BLEND_OP_SOURCE)));
+
+            int[] over = alpha ? over(base, box) : null;
+            if (over != null)
+                candidates.add(new Candidate(dispose, box, over,
+                        pending(box[0], box[1], box[2], box[3], numerator, denominator, APNG_BLEND_OP_OVER)));
+        }
+
+        for (Candidate c : candidates)
+            c.data = CompletableFuture.supplyAsync(
+                    () -> encoder.encode(c.pixels, 0, c.box[2], c.box[2], c.box[3], c.frame), executor);
+
+        Candidate best = null;
+        for (Candidate c : candidates)
+            if (best == null || c.data.join().length < best.data.join().length)
+                best = c;
+
+        APNGCollector.Pending previous = last;
+        previous.dispose = best.dispose;
+
+        switch (best.dispose) {
+            case APNG_DISPOSE_OP_NONE -> System.arraycopy(canvas, 0, before, 0, canvas.length);
+            case APNG_DISPOSE_OP_BACKGROUND -> {
+                int[] swap = before;
+                before = background;
+                background = swap;
+            }
+        }
+        int[] swap = canvas;
+        canvas = target;
+        target = swap;
+
+        last = best.frame;
+        last.data = CompletableFuture.completedFuture(refine != null
+                ? refine.encode(best.pixels, 0, best.box[2], best.box[2], best.box[3], last)
+                : best.data.join());
+        return previous;
+    }
+
+    /**
+     * @param dispose disposal of the previous frame.
+     * @return canvas after the disposal of the previous frame.
+     */
+    private int[] base(byte dispose) {
+        return switch (dispose) {
+            case APNG_DISPOSE_OP_BACKGROUND -> background;
+            case APNG_DISPOSE_OP_PREVIOUS -> before;
+            default -> canvas;
+        };
+    }
+
+    /**
+     * @param base canvas before the frame.
+     * @return bounding box {x, y, width, height} of pixels that differ from the target,
+     *         one pixel box if there are none.
+     */
+    private int[] bounds(int[] base) {
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+
+        for (int y = 0; y < height; ++y)
+            for (int x = 0, i = y * width; x < width; ++x, ++i)
+                if (base[i] != target[i]) {
+                    if (x < minX)
+                        minX = x;
+                    if (x > maxX)
+                        maxX = x;
+                    if (y < minY)
+                        minY = y;
+                    maxY = y;
+                }
+
+        if (maxX < 0)
+            return new int[]{0, 0, 1, 1};
+        return new int[]{minX, minY, maxX - minX + 1, maxY - minY + 1};
+    }
+
+    private int[] crop(int[] pixels, int[] box) {
+        int[] result = new int[box[2] * box[3]];
+        Compositor.copy(pixels, box[1] * width + box[0], width, result, 0, box[2], box[2], box[3]);
+        return result;
+    }
+
+    /**
+     * Makes the region for {@code APNG_BLEND_OP_OVER}: unchanged pixels become fully transparent.
+     *
+     * @param base canvas before the frame.
+     * @param box  changed region.
+     * @return region pixels or null if the region cannot be blended over the base without changes.
+     */
+    private int[] over(int[] base, int[] box) {
+        int[] result = new int[box[2] * box[3]];
+
+        for (int j = 0, r = 0; j < box[3]; ++j)
+            for (int i = 0, p = (box[1] + j) * width + box[0]; i < box[2]; ++i, ++p, ++r) {
+                int t = target[p], b = base[p];
+                if (t == b)
+                    result[r] = 0;
+                else if (t >>> 24 == 255 || b == 0)
+                    result[r] = t;
+                else
+                    return null;
+            }
+
+        return result;
+    }
+
+    /**
+     * Adds the delay to the delay of the frame if the sum fits into the fcTL chunk.
+     *
+     * @return true if the delay was added.
+     */
+    static boolean addDelay(APNGCollector.Pending frame, short numerator, short denominator) {
+        long n1 = frame.numerator & 0xFFFF,
+             d1 = frame.denominator == 0 ? 100 : frame.denominator & 0xFFFF,
+             n2 = numerator & 0xFFFF,
+             d2 = denominator == 0 ? 100 : denominator & 0xFFFF,
+             d = d1 / gcd(d1, d2) * d2,
+             n = n1 * (d / d1) + n2 * (d / d2),
+             g = gcd(n, d);
+
+        if (g > 1) {
+            n /= g;
+            d /= g;
+        }
+        if (n > 0xFFFF || d > 0xFFFF)
+            return false;
+
+        frame.numerator = (short) n;
+        frame.denominator = (short) d;
+        return true;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a == 0 ? 1 : a;
+    }
+
+    private static APNGCollector.Pending pending(int x, int y, int w, int h, short numerator, short denominator,
+                                                 byte blend) {
+        return new APNGCollector.Pending(w, h, x, y, numerator, denominator, APNG_DISPOSE_OP_NONE, blend, null);
+    }
+
+    private static final class Candidate {
+        final byte dispose;
+        final int[] box, pixels;
+        final APNGCollector.Pending frame;
+        CompletableFuture<byte[]> data;
+
+        Candidate(byte dispose, int[] box, int[] pixels, APNGCollector.Pending frame) {
+            this.dispose = dispose;
+            this.box = box;
+            this.pixels = pixels;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.librian.lib;
+
+import java.util.Arrays;
+
+/**
+ * Scales regions of a canvas onto a canvas of another size by area averaging: every destination pixel is the mean
+ * of the source area it covers, weighted by the covered part of each source pixel, with colours weighted by alpha.
+ * <p>
+ * Source pixel {@code s} covers {@code [s * D, (s + 1) * D)} and destination pixel {@code d} covers
+ * {@code [d * S, (d + 1) * S)} of the same axis, where {@code S} and {@code D} are the source and destination
+ * lengths, so the weights are exact integers divided by {@code S}. The part of a destination pixel that the
+ * scaled region does not cover is fully transparent.
+ * <p>
+ * Source rows are read one by one and only the destination rows they touch are accumulated, so besides
+ * the tables of weights the memory is a few rows of the destination region.
+ * An instance is not thread-safe.
+ */
+final class FrameScaler {
+    final int srcWidth, srcHeight, width, height;
+    private final Axis xAxis, yAxis;
+    private int[] row = new int[0];
+    private float[] line = new float[0], sums = new float[0];
+
+    /**
+     * @param srcWidth  source canvas width.
+     * @param srcHeight source canvas height.
+     * @param width     destination canvas width.
+     * @param height    destination canvas height.
+     */
+    FrameScaler(int srcWidth, int srcHeight, int width, int height) {
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.width = width;
+        this.height = height;
+        xAxis = new Axis(srcWidth, width);
+        yAxis = new Axis(srcHeight, height);
+    }
+
+    /**
+     * @return first destination column that the source column {@code x} covers.
+     */
+    int startX(int x) {
+        return xAxis.start(x);
+    }
+
+    /**
+     * @return destination column after the last one that the source columns before {@code x} cover.
+     */
+    int endX(int x) {
+        return xAxis.end(x);
+    }
+
+    /**
+     * @return first destination row that the source row {@code y} covers.
+     */
+    int startY(int y) {
+        return yAxis.start(y);
+    }
+
+    /**
+     * @return destination row after the last one that the source rows before {@code y} cover.
+     */
+    int endY(int y) {
+        return yAxis.end(y);
+    }
+
+    /**
+     * @return first source column that covers the destination column {@code x}.
+     */
+    int sourceStartX(int x) {
+        return xAxis.sourceStart(x);
+    }
+
+    /**
+     * @return source column after the last one that covers the destination columns before {@code x}.
+     */
+    int sourceEndX(int x) {
+        return xAxis.sourceEnd(x);
+    }
+
+    /**
+     * @return first source row that covers the destination row {@code y}.
+     */
+    int sourceStartY(int y) {
+        return yAxis.sourceStart(y);
+    }
+
+    /**
+     * @return source row after the last one that covers the destination rows before {@code y}.
+     */
+    int sourceEndY(int y) {
+        return yAxis.sourceEnd(y);
+    }
+
+    /**
+     * Scales the source region into the destination region. Source pixels that cover destination pixels
+     * out of the destination region are ignored.
+     *
+     * @param rows supplier of the rows of the source region, each of {@code sw} non-premultiplied ARGB pixels;
+     *             called once for every row, in order.
+     * @param sx   x of the source region on the source canvas.
+     * @param sy   y of the source region on the source canvas.
+     * @param sw   width of the source region.
+     * @param sh   height of the source region.
+     * @param dx   x of the destination region on the destination canvas.
+     * @param dy   y of the destination region on the destination canvas.
+     * @param dw   width of the destination region.
+     * @param dh   height of the destination region.
+     * @param dst  array of {@code dw * dh} pixels for the destination region, rows {@code dw} pixels apart.
+     */
+    void scale(RowSupplier rows, int sx, int sy, int sw, int sh, int dx, int dy, int dw, int dh, int[] dst) {
+        if (row.length < sw)
+            row = new int[sw];
+        if (line.length < dw * 4)
+            line = new float[dw * 4];
+        // Rows of the destination region are accumulated in a ring of the rows one source row can touch.
+        final int ring = yAxis.span + 1;
+        if (sums.length < ring * dw * 4)
+            sums = new float[ring * dw * 4];
+        Arrays.fill(sums, 0, ring * dw * 4, 0);
+
+        int done = 0;
+        for (int j = 0; j < sh; ++j) {
+            final int y = sy + j;
+            // Destination rows before the first one this source row covers are complete.
+            for (final int first = Math.min(dh, yAxis.start(y) - dy); done < first; ++done)
+                store(done, ring, dw, dst);
+            if (yAxis.start(y) >= dy + dh)
+                break;
+            if (yAxis.end(y + 1) <= dy)
+                continue;
+
+            rows.getRow(j, row);
+            accumulate(sx, sw, dx, dw);
+            for (int k = yAxis.first[y]; k < yAxis.first[y + 1]; ++k) {
+                final int t = yAxis.index[k] - dy;
+                if (t < 0 || t >= dh)
+                    continue;
+                final float w = yAxis.weight[k];
+                final int base = (t % ring) * dw * 4;
+                for (int i = 0; i < dw * 4; ++i)
+                    sums[base + i] += line[i] * w;
+            }
+        }
+        for (; done < dh; ++done)
+            store(done, ring, dw, dst);
+    }
+
+    /**
+     * Scales the row in {@link #row} horizontally into {@link #line} as premultiplied sums.
+     */
+    private void accumulate(int sx, int sw, int dx, int dw) {
+        Arrays.fill(line, 0, dw * 4, 0);
+        for (int i = 0; i < sw; ++i) {
+            final int argb = row[i],
+                      a = argb >>> 24;
+            if (a == 0)
+                continue;
+            final int x = sx + i;
+            for (int k = xAxis.first[x]; k < xAxis.first[x + 1]; ++k) {
+                final int t = xAxis.index[k] - dx;
+                if (t < 0 || t >= dw)
+                    continue;
+                final float w = xAxis.weight[k] * a;
+                final int p = t * 4;
+                line[p] += (argb >>> 16 & 0xFF) * w;
+                line[p + 1] += (argb >>> 8 & 0xFF) * w;
+                line[p + 2] += (argb & 0xFF) * w;
+                line[p + 3] += w;
+            }
+        }
+    }
+
+    /**
+     * Converts the complete destination row to non-premultiplied ARGB and clears its sums for reuse.
+     */
+    private void store(int t, int ring, int dw, int[] dst) {
+        final int base = (t % ring) * dw * 4;
+        for (int i = 0, p = base, d = t * dw; i < dw; ++i, p += 4, ++d) {
+            final float a = sums[p + 3];
+            final int alpha = Math.min(255, Math.round(a));
+            dst[d] = alpha == 0 ? 0 : alpha << 24
+                    | Math.min(255, Math.round(sums[p] / a)) << 16
+                    | Math.min(255, Math.round(sums[p + 1] / a)) << 8
+                    | Math.min(255, Math.round(sums[p + 2] / a));
+        }
+        Arrays.fill(sums, base, base + dw * 4, 0);
+    }
+
+    /**
+     * Weights of the source pixels of one axis: the destination pixels that source pixel {@code s} covers are
+     * {@code index[first[s]]} to {@code index[first[s + 1] - 1]}, with the covered part of each in {@code weight}.
+     */
+    private static final class Axis {
+        final long src, dst;
+        final int[] first, index;
+        final float[] weight;
+        /**
+         * Maximum number of destination pixels that one source pixel covers.
+         */
+        final int span;
+
+        Axis(int src, int dst) {
+            this.src = src;
+            this.dst = dst;
+            first = new int[src + 1];
+            index = new int[src + dst];
+            weight = new float[src + dst];
+
+            int k = 0, span = 1;
+            for (int s = 0; s < src; ++s) {
+                first[s] = k;
+                final long from = s * this.dst,
+                           to = from + this.dst;
+                for (long d = from / src; d * src < to; ++d) {
+                    index[k] = (int) d;
+                    weight[k++] = (float) (Math.min(to, (d + 1) * src) - Math.max(from, d * src)) / src;
+                }
+                span = Math.max(span, k - first[s]);
+            }
+            first[src] = k;
+            this.span = span;
+        }
+
+        int start(int s) {
+            return (int) (s * dst / src);
+        }
+
+        int end(int s) {
+            return (int) ((s * dst + src - 1) / src);
+        }
+
+        int sourceStart(int d) {
+            return (int) (d * src / dst);
+        }
+
+        int sourceEnd(int d) {
+            return (int) ((d * src + dst - 1) / dst);
+        }
+    }
+}
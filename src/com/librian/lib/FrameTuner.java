@@ -0,0 +1,192 @@
+package com.librian.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * Encodes every frame with several combinations of row filter, compression level and {@code Deflater} strategy
+ * at the same time and keeps the smallest result that is ready within the time budget.
+ * <p>
+ * The first combination is the one set on the collector, it is always encoded to the end, so a frame is never
+ * larger than without tuning. The others are tried in the order of their usual benefit and are not started
+ * once the budget of the frame or of the whole animation is spent; a combination that is still running
+ * when the budget ends is ignored.
+ * <p>
+ * An instance is thread-safe; the calling thread encodes combinations as well as the executor.
+ */
+class FrameTuner {
+    private static final byte[] FILTERS = {PNG_FILTER_ADAPTIVE, PNG_FILTER_NONE, PNG_FILTER_PAETH,
+                                           PNG_FILTER_UP, PNG_FILTER_SUB, PNG_FILTER_AVERAGE};
+    private static final int[] STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED};
+
+    private final Setting[] settings;
+    private final PixelFormat format;
+    private final long frameBudget, animationBudget;
+    private final Executor executor;
+    private final AtomicLong spent = new AtomicLong();
+
+    /**
+     * @param level           compression level set on the collector.
+     * @param filter          filter set on the collector.
+     * @param format          format of pixels.
+     * @param frameBudget     nanoseconds that one frame may take.
+     * @param animationBudget nanoseconds that all frames may take together.
+     * @param executor        executor that encodes the combinations.
+     */
+    FrameTuner(int level, byte filter, PixelFormat format, long frameBudget, long animationBudget,
+               Executor executor) {
+        this.format = format;
+        this.frameBudget = frameBudget;
+        this.animationBudget = animationBudget;
+        this.executor = executor;
+
+        List<Setting> list = new ArrayList<>();
+        list.add(new Setting(filter, level, Deflater.DEFAULT_STRATEGY));
+        for (int strategy : STRATEGIES)
+            for (byte f : FILTERS)
+                if (f != filter || level != 9 || strategy != Deflater.DEFAULT_STRATEGY)
+                    list.add(new Setting(f, 9, strategy));
+        settings = list.toArray(new Setting[0]);
+    }
+
+    /**
+     * Encodes the ARGB pixels with every combination that fits into the budget.
+     *
+     * @param pixels non-premultiplied ARGB pixels.
+     * @param offset index of the upper left pixel.
+     * @param scan   distance between rows in the array.
+     * @param width  image width.
+     * @param height image height.
+     * @return the smallest result.
+     */
+    Result encode(int[] pixels, int offset, int scan, int width, int height) {
+        final long start = System.nanoTime(),
+                   deadline = start + Math.min(frameBudget, Math.max(0, animationBudget - spent.get()));
+        final int count = settings.length;
+        List<CompletableFuture<byte[]>> results = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i)
+            results.add(new CompletableFuture<>());
+
+        // Combinations are claimed by the helpers and by this thread, as in ParallelDeflater; only the first one
+        // is claimed after the deadline.
+        AtomicInteger next = new AtomicInteger();
+        Runnable helper = () -> {
+            for (int i; (i = next.getAndIncrement()) < count; ) {
+                if (i > 0 && System.nanoTime() - deadline >= 0) {
+                    next.set(count);
+                    break;
+                }
+                try {
+                    results.get(i).complete(settings[i].encode(pixels, offset, scan, width, height));
+                } catch (RuntimeException | Error e) {
+                    results.get(i).completeExceptionally(e);
+                }
+            }
+        };
+        if (System.nanoTime() - deadline < 0)
+            for (int i = Math.min(count, Runtime.getRuntime().availableProcessors()); i > 1; --i)
+                executor.execute(helper);
+        helper.run();
+
+        int best = 0;
+        byte[] data = join(results.getFirst());
+        for (int i = 1; i < count; ++i) {
+            CompletableFuture<byte[]> future = results.get(i);
+            byte[] candidate;
+            try {
+                candidate = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // A failed combination only matters if it is the one set on the collector.
+                continue;
+            }
+            if (candidate.length < data.length) {
+                data = candidate;
+                best = i;
+            }
+        }
+        spent.addAndGet(System.nanoTime() - start);
+
+        Setting setting = settings[best];
+        return new Result(data, setting.filter, setting.level, setting.strategy);
+    }
+
+    /**
+     * Releases pooled encoders; the instance can still be used afterward.
+     */
+    void end() {
+        for (Setting setting : settings)
+            for (PNGEncoder encoder; (encoder = setting.encoders.poll()) != null; )
+                encoder.end();
+    }
+
+    private static byte[] join(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (e.getCause() instanceof Error cause)
+                throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Combination of filter, level and strategy with its own pool of encoders.
+     */
+    private final class Setting {
+        final byte filter;
+        final int level, strategy;
+        final ConcurrentLinkedQueue<PNGEncoder> encoders = new ConcurrentLinkedQueue<>();
+
+        Setting(byte filter, int level, int strategy) {
+            this.filter = filter;
+            this.level = level;
+            this.strategy = strategy;
+        }
+
+        byte[] encode(int[] pixels, int offset, int scan, int width, int height) {
+            PNGEncoder encoder = encoders.poll();
+            if (encoder == null)
+                encoder = new PNGEncoder(level, strategy, filter, format, null);
+            try {
+                return encoder.encode(pixels, offset, scan, width, height);
+            } finally {
+                encoders.offer(encoder);
+            }
+        }
+    }
+
+    /**
+     * Compressed image data with the combination that produced it.
+     */
+    static final class Result {
+        final byte[] data;
+        final byte filter;
+        final int level, strategy;
+
+        Result(byte[] data, byte filter, int level, int strategy) {
+            this.data = data;
+            this.filter = filter;
+            this.level = level;
+            this.strategy = strategy;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decoder of image data of IDAT and fdAT chunks: inflates the data with a reusable {@code Inflater},
+ * unfilters rows and writes non-premultiplied ARGB pixels straight into an {@code int[]} raster.
+ * <p>
+ * Supports every colour type and bit depth allowed by the specification, tRNS chunk and Adam7 interlacing.
+ * 16-bit samples are reduced to their high byte. An instance is not thread-safe.
+ */
+class PNGDecoder {
+    private static final int[] START_X = {0, 4, 0, 2, 0, 1, 0},
+                               START_Y = {0, 0, 4, 0, 2, 0, 1},
+                               STEP_X = {8, 8, 4, 4, 2, 2, 1},
+                               STEP_Y = {8, 8, 8, 4, 4, 2, 2};
+    private static final byte GRAY = 0, RGB = 2, INDEXED = 3, GRAY_ALPHA = 4, RGBA = 6;
+
+    private final Inflater inflater = new Inflater();
+    private final int[] palette = new int[256];
+    private byte[] raw = new byte[0];
+    private int type, depth, channels, bits, bpp;
+    private boolean interlaced, key;
+    private int keyR, keyG, keyB;
+    private int width, height, total, position;
+
+    /**
+     * Reads the image parameters from IHDR chunk.
+     *
+     * @param data data of IHDR chunk.
+     * @throws IOException if the colour type, bit depth or methods are not allowed.
+     */
+    void header(ByteBuffer data) throws IOException {
+        depth = data.get(data.position() + 8);
+        type = data.get(data.position() + 9);
+        interlaced = data.get(data.position() + 12) == 1;
+
+        channels = switch (type) {
+            case GRAY, INDEXED -> 1;
+            case GRAY_ALPHA -> 2;
+            case RGB -> 3;
+            case RGBA -> 4;
+            default -> throw new IOException("Invalid colour type: " + type);
+        };
+        boolean valid = switch (type) {
+            case GRAY -> depth == 1 || depth == 2 || depth == 4 || depth == 8 || depth == 16;
+            case INDEXED -> depth == 1 || depth == 2 || depth == 4 || depth == 8;
+            default -> depth == 8 || depth == 16;
+        };
+        if (!valid)
+            throw new IOException("Invalid bit depth " + depth + " for colour type " + type);
+        if (data.get(data.position() + 10) != 0 || data.get(data.position() + 11) != 0
+                || data.get(data.position() + 12) > 1)
+            throw new IOException("Unknown compression, filter or interlace method");
+
+        bits = channels * depth;
+        bpp = Math.max(1, bits / 8);
+        key = false;
+        for (int i = 0; i < palette.length; ++i)
+            palette[i] = 0xFF000000;
+    }
+
+    /**
+     * Reads the colours of PLTE chunk.
+     *
+     * @param data data of PLTE chunk.
+     */
+    void palette(ByteBuffer data) {
+        for (int i = 0, p = data.position(); i < 256 && p + 2 < data.limit(); ++i, p += 3)
+            palette[i] = palette[i] & 0xFF000000
+                    | (data.get(p) & 0xFF) << 16
+                    | (data.get(p + 1) & 0xFF) << 8
+                    | (data.get(p + 2) & 0xFF);
+    }
+
+    /**
+     * Reads tRNS chunk: alpha of palette colours, or the single transparent gray or RGB value.
+     *
+     * @param data data of tRNS chunk.
+     */
+    void transparency(ByteBuffer data) {
+        final int p = data.position();
+        switch (type) {
+            case INDEXED -> {
+                for (int i = 0; i < 256 && p + i < data.limit(); ++i)
+                    palette[i] = (data.get(p + i) & 0xFF) << 24 | palette[i] & 0xFFFFFF;
+            }
+            case GRAY -> {
+                if (data.remaining() >= 2) {
+                    key = true;
+                    keyR = keyG = keyB = data.getShort(p) & 0xFFFF;
+                }
+            }
+            case RGB -> {
+                if (data.remaining() >= 6) {
+                    key = true;
+                    keyR = data.getShort(p) & 0xFFFF;
+                    keyG = data.getShort(p + 2) & 0xFFFF;
+                    keyB = data.getShort(p + 4) & 0xFFFF;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts decoding of the image with given dimensions.
+     *
+     * @param width  image width.
+     * @param height image height.
+     * @throws IOException if the image is too large.
+     */
+    void begin(int width, int height) throws IOException {
+        if (width <= 0 || height <= 0)
+            throw new IOException("Invalid image size: " + width + "x" + height);
+
+        long size = 0;
+        if (interlaced)
+            for (int pass = 0; pass < 7; ++pass)
+                size += passSize(pass, width, height);
+        else
+            size = (rowBytes(width) + 1) * height;
+        if (size > Integer.MAX_VALUE - 8 || (long) width * height > Integer.MAX_VALUE - 8)
+            throw new IOException("Image is too large: " + width + "x" + height);
+
+        this.width = width;
+        this.height = height;
+        this.total = (int) size;
+        this.position = 0;
+        if (raw.length < total)
+            raw = new byte[total];
+        inflater.reset();
+    }
+
+    /**
+     * Inflates the next part of compressed image data.
+     *
+     * @param data compressed data, from its position to its limit.
+     * @throws IOException if the data is corrupted.
+     */
+    void feed(ByteBuffer data) throws IOException {
+        inflater.setInput(data);
+        try {
+            while (position < total && !inflater.finished() && !inflater.needsInput()) {
+                int n = inflater.inflate(raw, position, total - position);
+                if (n == 0 && inflater.needsDictionary())
+                    throw new IOException("Image data requires a preset dictionary");
+                position += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted image data", e);
+        }
+    }
+
+    /**
+     * @return true if all image data of the image has been inflated, so that {@link #finish()} can be called.
+     */
+    boolean complete() {
+        return position == total;
+    }
+
+    /**
+     * @return number of bytes of filtered image data of the current image.
+     */
+    int size() {
+        return total;
+    }
+
+    /**
+     * @return length of the buffer of filtered image data, which is reused between images.
+     */
+    int capacity() {
+        return raw.length;
+    }
+
+    /**
+     * @return decoded image.
+     * @throws IOException if the image data is truncated or has an unknown filter type.
+     */
+    int[] finish() throws IOException {
+        return finish(new int[width * height]);
+    }
+
+    /**
+     * @param argb array for the pixels, at least of the image size; rows are written one after another.
+     * @return the array with the decoded image.
+     * @throws IOException if the image data is truncated or has an unknown filter type.
+     */
+    int[] finish(int[] argb) throws IOException {
+        if (position < total)
+            throw new IOException("Image data is truncated: " + position + " of " + total + " bytes");
+
+        if (!interlaced)
+            pass(argb, 0, 0, 0, 1, 1, width, height);
+        else
+            for (int pass = 0, offset = 0; pass < 7; ++pass) {
+                int w = (width - START_X[pass] + STEP_X[pass] - 1) / STEP_X[pass],
+                    h = (height - START_Y[pass] + STEP_Y[pass] - 1) / STEP_Y[pass];
+                if (w <= 0 || h <= 0)
+                    continue;
+                pass(argb, offset, START_X[pass], START_Y[pass], STEP_X[pass], STEP_Y[pass], w, h);
+                offset += (int) passSize(pass, width, height);
+            }
+        return argb;
+    }
+
+    /**
+     * Releases the {@code Inflater}. The instance cannot be used afterward.
+     */
+    void end() {
+        inflater.end();
+    }
+
+    /**
+     * Wraps the pixels into an image without copying.
+     *
+     * @param argb   non-premultiplied ARGB pixels.
+     * @param width  image width.
+     * @param height image height.
+     * @return image of type {@code TYPE_INT_ARGB}.
+     */
+    static BufferedImage image(int[] argb, int width, int height) {
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(argb, width * height), width, height,
+                width, new int[]{0xFF0000, 0xFF00, 0xFF, 0xFF000000}, null);
+        return new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+    }
+
+    private long rowBytes(int width) {
+        return ((long) width * bits + 7) / 8;
+    }
+
+    private long passSize(int pass, int width, int height) {
+        long w = (width - START_X[pass] + STEP_X[pass] - 1) / STEP_X[pass],
+             h = (height - START_Y[pass] + STEP_Y[pass] - 1) / STEP_Y[pass];
+        return w <= 0 || h <= 0 ? 0 : (rowBytes((int) w) + 1) * h;
+    }
+
+    /**
+     * Unfilters the rows of one pass and writes its pixels.
+     */
+    private void pass(int[] argb, int offset, int x0, int y0, int dx, int dy, int w, int h) throws IOException {
+        final int length = (int) rowBytes(w);
+
+        for (int y = 0, row = offset; y < h; ++y, row += length + 1) {
+            unfilter(raw[row], row + 1, y == 0 ? -1 : row - length, length);
+            convert(argb, row + 1, (y0 + y * dy) * width + x0, dx, w);
+        }
+    }
+
+    /**
+     * Reverses the filter of the row in place.
+     *
+     * @param type     filter type.
+     * @param row      index of the first byte of the row.
+     * @param previous index of the first byte of the previous unfiltered row, or -1 for the first row.
+     * @param length   row length in bytes without filter type byte.
+     */
+    private void unfilter(byte type, int row, int previous, int length) throws IOException {
+        switch (type) {
+            case 0 -> {
+            }
+            case 1 -> {
+                for (int i = bpp; i < length; ++i)
+                    raw[row + i] += raw[row + i - bpp];
+            }
+            case 2 -> {
+                if (previous >= 0)
+                    for (int i = 0; i < length; ++i)
+                        raw[row + i] += raw[previous + i];
+            }
+            case 3 -> {
+                for (int i = 0; i < length; ++i) {
+                    int a = i >= bpp ? raw[row + i - bpp] & 0xFF : 0,
+                        b = previous >= 0 ? raw[previous + i] & 0xFF : 0;
+                    raw[row + i] += (byte) ((a + b) >>> 1);
+                }
+            }
+            case 4 -> {
+                for (int i = 0; i < length; ++i) {
+                    int a = i >= bpp ? raw[row + i - bpp] & 0xFF : 0,
+                        b = previous >= 0 ? raw[previous + i] & 0xFF : 0,
+                        c = i >= bpp && previous >= 0 ? raw[previous + i - bpp] & 0xFF : 0;
+                    raw[row + i] += (byte) PNGEncoder.paeth(a, b, c);
+                }
+            }
+            default -> throw new IOException("Unknown filter type: " + type);
+        }
+    }
+
+    /**
+     * Converts one unfiltered row to ARGB pixels.
+     *
+     * @param argb destination.
+     * @param row  index of the first byte of the row.
+     * @param dst  index of the first pixel in the destination.
+     * @param dx   distance between pixels in the destination.
+     * @param w    number of pixels.
+     */
+    private void convert(int[] argb, int row, int dst, int dx, int w) {
+        final byte[] raw = this.raw;
+
+        if (depth == 8) {
+            switch (type) {
+                case RGBA -> {
+                    for (int x = 0, i = row; x < w; ++x, i += 4, dst += dx)
+                        argb[dst] = (raw[i + 3] & 0xFF) << 24
+                                | (raw[i] & 0xFF) << 16
+                                | (raw[i + 1] & 0xFF) << 8
+                                | (raw[i + 2] & 0xFF);
+                }
+                case RGB -> {
+                    for (int x = 0, i = row; x < w; ++x, i += 3, dst += dx) {
+                        int r = raw[i] & 0xFF, g = raw[i + 1] & 0xFF, b = raw[i + 2] & 0xFF;
+                        argb[dst] = (key && r == keyR && g == keyG && b == keyB ? 0 : 0xFF000000)
+                                | r << 16 | g << 8 | b;
+                    }
+                }
+                case GRAY_ALPHA -> {
+                    for (int x = 0, i = row; x < w; ++x, i += 2, dst += dx)
+                        argb[dst] = (raw[i + 1] & 0xFF) << 24 | (raw[i] & 0xFF) * 0x010101;
+                }
+                case GRAY -> {
+                    for (int x = 0, i = row; x < w; ++x, ++i, dst += dx) {
+                        int v = raw[i] & 0xFF;
+                        argb[dst] = (key && v == keyR ? 0 : 0xFF000000) | v * 0x010101;
+                    }
+                }
+                case INDEXED -> {
+                    for (int x = 0, i = row; x < w; ++x, ++i, dst += dx)
+                        argb[dst] = palette[raw[i] & 0xFF];
+                }
+            }
+        } else if (depth == 16) {
+            for (int x = 0, i = row; x < w; ++x, i += channels * 2, dst += dx) {
+                int s0 = sample16(i), s1, s2;
+                argb[dst] = switch (type) {
+                    case RGBA -> (raw[i + 6] & 0xFF) << 24 | (s0 >>> 8) << 16
+                            | (raw[i + 2] & 0xFF) << 8 | (raw[i + 4] & 0xFF);
+                    case RGB -> {
+                        s1 = sample16(i + 2);
+                        s2 = sample16(i + 4);
+                        yield (key && s0 == keyR && s1 == keyG && s2 == keyB ? 0 : 0xFF000000)
+                                | (s0 >>> 8) << 16 | (s1 >>> 8) << 8 | s2 >>> 8;
+                    }
+                    case GRAY_ALPHA -> (raw[i + 2] & 0xFF) << 24 | (s0 >>> 8) * 0x010101;
+                    default -> (key && s0 == keyR ? 0 : 0xFF000000) | (s0 >>> 8) * 0x010101;
+                };
+            }
+        } else {
+            final int mask = (1 << depth) - 1,
+                      scale = 255 / mask;
+            for (int x = 0, bit = 0; x < w; ++x, bit += depth, dst += dx) {
+                int v = raw[row + (bit >>> 3)] >> (8 - depth - (bit & 7)) & mask;
+                if (type == INDEXED)
+                    argb[dst] = palette[v];
+                else
+                    argb[dst] = (key && v == keyR ? 0 : 0xFF000000) | v * scale * 0x010101;
+            }
+        }
+    }
+
+    private int sample16(int i) {
+        return (raw[i] & 0xFF) << 8 | raw[i + 1] & 0xFF;
+    }
+}
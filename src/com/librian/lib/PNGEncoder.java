@@ -0,0 +1,572 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+
+import static com.librian.lib.APNGCollector.*;
+import static com.librian.lib.PixelFormat.*;
+
+/**
+ * Encoder of image data for IDAT and fdAT chunks: filters rows of the raster and compresses them with a reusable
+ * {@code Deflater}, without building an intermediate PNG stream.
+ * <p>
+ * An instance is not thread-safe, but can encode any number of frames one after another.
+ */
+class PNGEncoder {
+    private final Deflater deflater;
+    private final ParallelDeflater parallel;
+    private final byte filter;
+    private final PixelFormat format;
+    private final int bits, bpp;
+    private final HashMap<Integer, Integer> nearest = new HashMap<>();
+    private final byte[] buffer = new byte[1 << 16];
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private byte[] previous = new byte[0],
+                   current = new byte[0],
+                   filtered = new byte[0],
+                   best = new byte[0];
+    private int[] argb = new int[0],
+                  error = new int[0],
+                  next = new int[0];
+    private byte[] rows = new byte[0];
+    private int width, length, size;
+    private boolean blocks;
+
+    /**
+     * @param level  compression level of {@code Deflater} from 0 to 9, or {@code Deflater.DEFAULT_COMPRESSION}.
+     * @param filter one of {@code PNG_FILTER_*} constants.
+     * @param format format of pixels.
+     * @see APNGCollector#setCompressionLevel(int)
+     * @see APNGCollector#setFilter(byte)
+     * @see APNGCollector#setFormat(PixelFormat)
+     */
+    PNGEncoder(int level, byte filter, PixelFormat format) {
+        this(level, filter, format, null);
+    }
+
+    /**
+     * @param level    compression level of {@code Deflater} from 0 to 9, or {@code Deflater.DEFAULT_COMPRESSION}.
+     * @param filter   one of {@code PNG_FILTER_*} constants.
+     * @param format   format of pixels.
+     * @param parallel compressor of large images in parallel blocks, or null to compress every image
+     *                 in this thread.
+     * @see APNGCollector#setParallelCompression(boolean, int)
+     */
+    PNGEncoder(int level, byte filter, PixelFormat format, ParallelDeflater parallel) {
+        this(level, Deflater.DEFAULT_STRATEGY, filter, format, parallel);
+    }
+
+    /**
+     * @param level    compression level of {@code Deflater} from 0 to 9, or {@code Deflater.DEFAULT_COMPRESSION}.
+     * @param strategy compression strategy of {@code Deflater}.
+     * @param filter   one of {@code PNG_FILTER_*} constants.
+     * @param format   format of pixels.
+     * @param parallel compressor of large images in parallel blocks, or null to compress every image
+     *                 in this thread.
+     * @see Deflater#setStrategy(int)
+     */
+    PNGEncoder(int level, int strategy, byte filter, PixelFormat format, ParallelDeflater parallel) {
+        if (filter < PNG_FILTER_NONE || filter > PNG_FILTER_ADAPTIVE)
+            throw new IllegalArgumentException("Unknown filter: " + filter);
+
+        this.deflater = new Deflater(level);
+        this.deflater.setStrategy(strategy);
+        this.parallel = parallel;
+        this.filter = filter;
+        this.format = format;
+        this.bits = format.bitsPerPixel();
+        this.bpp = Math.max(1, bits / 8);
+    }
+
+    /**
+     * Encodes the image in the pixel format.
+     *
+     * @param image image to be encoded.
+     * @return zlib stream of filtered rows; content of IDAT chunk or fdAT chunk without sequence number.
+     */
+    byte[] encode(BufferedImage image) {
+        return encode(image.getWidth(), image.getHeight(), rows(image));
+    }
+
+    /**
+     * Encodes the rows in the pixel format as they are supplied; only the current and the previous row are kept.
+     *
+     * @param width  image width.
+     * @param height image height.
+     * @param rows   supplier of non-premultiplied ARGB rows.
+     * @return zlib stream of filtered rows; content of IDAT chunk or fdAT chunk without sequence number.
+     */
+    byte[] encode(int width, int height, RowSupplier rows) {
+        begin(width, height);
+
+        for (int y = 0; y < height; ++y) {
+            rows.getRow(y, argb);
+            row(argb, 0);
+        }
+        return finish();
+    }
+
+    /**
+     * Encodes the ARGB pixels in the pixel format.
+     *
+     * @param pixels non-premultiplied ARGB pixels.
+     * @param offset index of the upper left pixel.
+     * @param scan   distance between rows in the array.
+     * @param width  image width.
+     * @param height image height.
+     * @return zlib stream of filtered rows; content of IDAT chunk or fdAT chunk without sequence number.
+     */
+    byte[] encode(int[] pixels, int offset, int scan, int width, int height) {
+        begin(width, height);
+
+        for (int y = 0; y < height; ++y)
+            row(pixels, offset + y * scan);
+        return finish();
+    }
+
+    private void begin(int width, int height) {
+        this.width = width;
+        this.length = (int) (((long) width * bits + 7) / 8) + 1;
+        allocate(width, length);
+
+        // Filtered rows of a large image are kept to be compressed in parallel blocks.
+        final long total = (long) length * height;
+        blocks = parallel != null && parallel.accepts(total) && total < Integer.MAX_VALUE;
+        if (blocks) {
+            if (rows.length < total)
+                rows = new byte[(int) total];
+            size = 0;
+            return;
+        }
+        deflater.reset();
+        out.reset();
+    }
+
+    private void row(int[] pixels, int offset) {
+        switch (format.getColorType()) {
+            case RGBA -> {
+                for (int x = 0, i = 1; x < width; ++x) {
+                    int p = pixels[offset + x];
+                    current[i++] = (byte) (p >>> 16);
+                    current[i++] = (byte) (p >>> 8);
+                    current[i++] = (byte) p;
+                    current[i++] = (byte) (p >>> 24);
+                }
+            }
+            case RGB -> {
+                for (int x = 0, i = 1; x < width; ++x) {
+                    int p = pixels[offset + x];
+                    current[i++] = (byte) (p >>> 16);
+                    current[i++] = (byte) (p >>> 8);
+                    current[i++] = (byte) p;
+                }
+            }
+            case GRAY_ALPHA -> {
+                for (int x = 0, i = 1; x < width; ++x) {
+                    int p = pixels[offset + x];
+                    current[i++] = (byte) gray(p);
+                    current[i++] = (byte) (p >>> 24);
+                }
+            }
+            case GRAY -> {
+                final int max = (1 << bits) - 1;
+                Arrays.fill(current, 1, length, (byte) 0);
+                for (int x = 0; x < width; ++x)
+                    pack(x, (gray(pixels[offset + x]) * max + 127) / 255);
+            }
+            case INDEXED -> {
+                Arrays.fill(current, 1, length, (byte) 0);
+                if (format.isDithered())
+                    dither(pixels, offset);
+                else
+                    for (int x = 0; x < width; ++x)
+                        pack(x, index(normalize(pixels[offset + x])));
+            }
+        }
+
+        deflate(filterRow(length, bpp), length);
+
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+    }
+
+    private byte[] finish() {
+        if (blocks)
+            return parallel.deflate(rows, 0, size);
+
+        deflater.finish();
+        while (!deflater.finished())
+            out.write(buffer, 0, deflater.deflate(buffer));
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a value of less than 8 bits (or exactly 8 bits) to the current row, leftmost pixel in the high bits.
+     *
+     * @param x     pixel.
+     * @param value sample value or palette index.
+     */
+    private void pack(int x, int value) {
+        if (bits == 8) {
+            current[x + 1] = (byte) value;
+            return;
+        }
+        int bit = x * bits;
+        current[1 + (bit >>> 3)] |= (byte) (value << (8 - bits - (bit & 7)));
+    }
+
+    /**
+     * Maps the row to the palette with Floyd–Steinberg error diffusion; fully transparent pixels are not dithered.
+     */
+    private void dither(int[] pixels, int offset) {
+        int[] palette = format.palette();
+        Arrays.fill(next, 0);
+
+        for (int x = 0; x < width; ++x) {
+            int p = normalize(pixels[offset + x]);
+            if (p == 0) {
+                pack(x, index(0));
+                continue;
+            }
+
+            int e = (x + 1) * 4, c = 0;
+            for (int k = 0, shift = 24; k < 4; ++k, shift -= 8)
+                c |= Math.clamp((p >>> shift & 0xFF) + error[e + k] / 16, 0, 255) << shift;
+
+            int i = index(normalize(c)), q = palette[i];
+            pack(x, i);
+
+            for (int k = 0, shift = 24; k < 4; ++k, shift -= 8) {
+                int d = (c >>> shift & 0xFF) - (q >>> shift & 0xFF);
+                error[e + 4 + k] += d * 7;
+                next[e - 4 + k] += d * 3;
+                next[e + k] += d * 5;
+                next[e + 4 + k] += d;
+            }
+        }
+
+        int[] swap = error;
+        error = next;
+        next = swap;
+    }
+
+    /**
+     * @param argb normalized colour.
+     * @return index of the colour, or of the nearest colour in the palette.
+     */
+    private int index(int argb) {
+        int index = format.indexOf(argb);
+        if (index >= 0)
+            return index;
+
+        Integer cached = nearest.get(argb);
+        if (cached == null) {
+            if (nearest.size() >= 1 << 16)
+                nearest.clear();
+            cached = format.nearest(argb);
+            nearest.put(argb, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * @return luminance of the pixel, or its value if the pixel is already gray.
+     */
+    private static int gray(int p) {
+        int r = p >>> 16 & 0xFF,
+            g = p >>> 8 & 0xFF,
+            b = p & 0xFF;
+        if (r == g && g == b)
+            return r;
+        return (r * 299 + g * 587 + b * 114 + 500) / 1000;
+    }
+
+    /**
+     * Releases the {@code Deflater}. The instance cannot be used afterward.
+     */
+    void end() {
+        deflater.end();
+    }
+
+    /**
+     * Reads one row of the image as non-premultiplied ARGB pixels.
+     * Rasters of the common {@code BufferedImage} types are read directly, the others through {@code getRGB}.
+     * Data elements of byte rasters are returned in band order, i.e. RGB(A) for the BGR and ABGR types.
+     *
+     * @param image image.
+     * @param y     row.
+     * @param argb  destination with length of at least image width.
+     */
+    static void readRow(BufferedImage image, int y, int[] argb) {
+        final int width = image.getWidth();
+        Raster raster = image.getRaster();
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_ARGB -> raster.getDataElements(0, y, width, 1, argb);
+            case BufferedImage.TYPE_INT_RGB -> {
+                raster.getDataElements(0, y, width, 1, argb);
+                for (int x = 0; x < width; ++x)
+                    argb[x] |= 0xFF000000;
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR -> {
+                byte[] row = (byte[]) raster.getDataElements(0, y, width, 1, null);
+                for (int x = 0, i = 0; x < width; ++x, i += 4)
+                    argb[x] = (row[i + 3] & 0xFF) << 24
+                            | (row[i] & 0xFF) << 16
+                            | (row[i + 1] & 0xFF) << 8
+                            | (row[i + 2] & 0xFF);
+            }
+            case BufferedImage.TYPE_3BYTE_BGR -> {
+                byte[] row = (byte[]) raster.getDataElements(0, y, width, 1, null);
+                for (int x = 0, i = 0; x < width; ++x, i += 3)
+                    argb[x] = 0xFF000000
+                            | (row[i] & 0xFF) << 16
+                            | (row[i + 1] & 0xFF) << 8
+                            | (row[i + 2] & 0xFF);
+            }
+            default -> image.getRGB(0, y, width, 1, argb, 0, width);
+        }
+    }
+
+    /**
+     * @param image image.
+     * @return supplier of the rows of the image.
+     * @see PNGEncoder#readRow(BufferedImage, int, int[])
+     */
+    static RowSupplier rows(BufferedImage image) {
+        return (y, argb) -> readRow(image, y, argb);
+    }
+
+    /**
+     * Copies the pixels of the image, so that it can be changed before the rows are requested.
+     *
+     * @param image image.
+     * @return supplier of the rows of the copy.
+     * @see PNGEncoder#rows(BufferedImage)
+     */
+    static RowSupplier snapshot(BufferedImage image) {
+        final int width = image.getWidth(),
+                  height = image.getHeight();
+        final int[] pixels = new int[width * height],
+                    row = new int[width];
+        for (int y = 0; y < height; ++y) {
+            readRow(image, y, row);
+            System.arraycopy(row, 0, pixels, y * width, width);
+        }
+        return (y, argb) -> System.arraycopy(pixels, y * width, argb, 0, width);
+    }
+
+    /**
+     * Makes a supplier of rows of ARGB pixels in the buffer.
+     *
+     * @param pixels non-premultiplied ARGB pixels, the upper left one at the position of the buffer.
+     * @param stride distance between rows in pixels.
+     * @param width  image width.
+     * @param height image height.
+     * @return supplier of the rows.
+     * @throws IllegalArgumentException if the stride is less than the width or the buffer is too short.
+     */
+    static RowSupplier rows(IntBuffer pixels, int stride, int width, int height) {
+        check(pixels.remaining(), stride, width, width, height);
+        final int position = pixels.position();
+        return (y, argb) -> pixels.get(position + y * stride, argb, 0, width);
+    }
+
+    /**
+     * Makes a supplier of rows of pixels in the buffer, laid out as PNG image data of the format:
+     * one byte per sample in the order R, G, B, A, or gray and alpha.
+     *
+     * @param pixels pixels, the upper left one at the position of the buffer.
+     * @param stride distance between rows in bytes.
+     * @param format {@code GRAY}, {@code GRAY_ALPHA}, {@code RGB} or {@code RGBA} format with bit depth 8.
+     * @param width  image width.
+     * @param height image height.
+     * @return supplier of the rows.
+     * @throws IllegalArgumentException if the format is not supported, the stride is less than the row
+     *                                  or the buffer is too short.
+     */
+    static RowSupplier rows(ByteBuffer pixels, int stride, PixelFormat format, int width, int height) {
+        if (format.getColorType() == INDEXED || format.getBitDepth() != 8)
+            throw new IllegalArgumentException("Unsupported format of pixels: " + format);
+        final int channels = format.bitsPerPixel() / 8;
+        check(pixels.remaining(), stride, (long) width * channels, width, height);
+
+        final int position = pixels.position();
+        final byte type = format.getColorType();
+        byte[] row = new byte[width * channels];
+        return (y, argb) -> {
+            pixels.get(position + y * stride, row);
+            switch (type) {
+                case RGBA -> {
+                    for (int x = 0, i = 0; x < width; ++x, i += 4)
+                        argb[x] = (row[i + 3] & 0xFF) << 24
+                                | (row[i] & 0xFF) << 16
+                                | (row[i + 1] & 0xFF) << 8
+                                | (row[i + 2] & 0xFF);
+                }
+                case RGB -> {
+                    for (int x = 0, i = 0; x < width; ++x, i += 3)
+                        argb[x] = 0xFF000000
+                                | (row[i] & 0xFF) << 16
+                                | (row[i + 1] & 0xFF) << 8
+                                | (row[i + 2] & 0xFF);
+                }
+                case GRAY_ALPHA -> {
+                    for (int x = 0, i = 0; x < width; ++x, i += 2)
+                        argb[x] = (row[i + 1] & 0xFF) << 24 | (row[i] & 0xFF) * 0x010101;
+                }
+                default -> {
+                    for (int x = 0; x < width; ++x)
+                        argb[x] = 0xFF000000 | (row[x] & 0xFF) * 0x010101;
+                }
+            }
+        };
+    }
+
+    /**
+     * @param remaining number of elements in the buffer.
+     * @param stride    distance between rows in elements.
+     * @param row       number of elements of one row.
+     * @throws IllegalArgumentException if the rows do not fit into the buffer.
+     */
+    private static void check(int remaining, int stride, long row, int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        if (stride < row)
+            throw new IllegalArgumentException("Stride " + stride + " is less than the row of " + row);
+        if ((long) stride * (height - 1) + row > remaining)
+            throw new IllegalArgumentException("Buffer of " + remaining + " elements is too short for "
+                    + width + "x" + height + " pixels with stride " + stride);
+    }
+
+    /**
+     * Applies the filter to the current row.
+     * <pre>
+     * PNG_FILTER_ADAPTIVE
+     *   every filter is tried, the one with the minimum sum of absolute differences is chosen.
+     * </pre>
+     *
+     * @param length row length in bytes including filter type byte.
+     * @param bpp    bytes per complete pixel, rounded up to one.
+     * @return filtered row.
+     */
+    private byte[] filterRow(int length, int bpp) {
+        if (filter != PNG_FILTER_ADAPTIVE) {
+            filter(filter, current, previous, filtered, length, bpp);
+            return filtered;
+        }
+
+        long min = Long.MAX_VALUE;
+        for (byte type = PNG_FILTER_NONE; type <= PNG_FILTER_PAETH; ++type) {
+            filter(type, current, previous, filtered, length, bpp);
+
+            long sum = 0;
+            for (int i = 1; i < length && sum < min; ++i)
+                sum += Math.abs(filtered[i]);
+
+            if (sum < min) {
+                min = sum;
+                byte[] swap = best;
+                best = filtered;
+                filtered = swap;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Filters one row; the first byte of every array is the filter type.
+     *
+     * @param type     filter type from 0 to 4.
+     * @param row      unfiltered row.
+     * @param previous unfiltered previous row, zeros for the first row.
+     * @param out      destination.
+     * @param length   row length in bytes including filter type byte.
+     * @param bpp      bytes per complete pixel, rounded up to one.
+     */
+    static void filter(byte type, byte[] row, byte[] previous, byte[] out, int length, int bpp) {
+        out[0] = type;
+        switch (type) {
+            case PNG_FILTER_NONE -> System.arraycopy(row, 1, out, 1, length - 1);
+            case PNG_FILTER_SUB -> {
+                for (int i = 1; i < length; ++i)
+                    out[i] = (byte) (row[i] - (i > bpp ? row[i - bpp] : 0));
+            }
+            case PNG_FILTER_UP -> {
+                for (int i = 1; i < length; ++i)
+                    out[i] = (byte) (row[i] - previous[i]);
+            }
+            case PNG_FILTER_AVERAGE -> {
+                for (int i = 1; i < length; ++i) {
+                    int a = i > bpp ? row[i - bpp] & 0xFF : 0;
+                    out[i] = (byte) (row[i] - ((a + (previous[i] & 0xFF)) >>> 1));
+                }
+            }
+            case PNG_FILTER_PAETH -> {
+                for (int i = 1; i < length; ++i) {
+                    int a = i > bpp ? row[i - bpp] & 0xFF : 0,
+                        b = previous[i] & 0xFF,
+                        c = i > bpp ? previous[i - bpp] & 0xFF : 0;
+                    out[i] = (byte) (row[i] - paeth(a, b, c));
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown filter: " + type);
+        }
+    }
+
+    /**
+     * @param a left byte.
+     * @param b upper byte.
+     * @param c upper left byte.
+     * @return Paeth predictor.
+     */
+    static int paeth(int a, int b, int c) {
+        int p = a + b - c,
+            pa = Math.abs(p - a),
+            pb = Math.abs(p - b),
+            pc = Math.abs(p - c);
+
+        if (pa <= pb && pa <= pc)
+            return a;
+        return pb <= pc ? b : c;
+    }
+
+    private void deflate(byte[] row, int length) {
+        if (blocks) {
+            System.arraycopy(row, 0, rows, size, length);
+            size += length;
+            return;
+        }
+
+        deflater.setInput(row, 0, length);
+        while (!deflater.needsInput())
+            out.write(buffer, 0, deflater.deflate(buffer));
+    }
+
+    private void allocate(int width, int length) {
+        if (argb.length < width)
+            argb = new int[width];
+        if (format.isDithered()) {
+            if (error.length < (width + 2) * 4) {
+                error = new int[(width + 2) * 4];
+                next = new int[(width + 2) * 4];
+            } else
+                Arrays.fill(error, 0);
+        }
+        if (current.length < length) {
+            current = new byte[length];
+            filtered = new byte[length];
+            best = new byte[length];
+            previous = new byte[length];
+        } else
+            Arrays.fill(previous, (byte) 0);
+    }
+}
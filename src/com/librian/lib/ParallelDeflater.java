@@ -0,0 +1,213 @@
+package com.librian.lib;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses large data into one zlib stream by splitting it into blocks that are compressed concurrently,
+ * as pigz does. Every block is compressed by a raw {@code Deflater} with the last 32 KiB of the preceding block
+ * as its preset dictionary, so matches across the block boundary are still found, and is ended by a sync flush
+ * at a byte boundary, so the compressed blocks can be joined. The Adler-32 checksums of the blocks are combined
+ * into the checksum of the whole data.
+ * <p>
+ * An instance is thread-safe; the calling thread compresses blocks as well as the executor.
+ */
+class ParallelDeflater {
+    /**
+     * Size of the uncompressed blocks.
+     */
+    static final int BLOCK = 128 * 1024;
+    /**
+     * Size of the window of deflate, the longest preset dictionary that is useful.
+     */
+    private static final int WINDOW = 32 * 1024;
+    private static final int BASE = 65521;
+
+    private final int level, threshold;
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param level     compression level of {@code Deflater} from 0 to 9, or {@code Deflater.DEFAULT_COMPRESSION}.
+     * @param threshold minimum length of data compressed in parallel.
+     * @param executor  executor that compresses the blocks.
+     */
+    ParallelDeflater(int level, int threshold, Executor executor) {
+        this.level = level;
+        this.threshold = Math.max(threshold, 2 * BLOCK);
+        this.executor = executor;
+    }
+
+    /**
+     * @param length length of data.
+     * @return true if data of the length is compressed in parallel.
+     */
+    boolean accepts(long length) {
+        return length >= threshold;
+    }
+
+    /**
+     * Compresses the data into a zlib stream.
+     *
+     * @param data   data.
+     * @param offset offset of the data.
+     * @param length length of the data.
+     * @return zlib stream.
+     */
+    byte[] deflate(byte[] data, int offset, int length) {
+        final int count = (length + BLOCK - 1) / BLOCK;
+        List<CompletableFuture<Block>> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i)
+            blocks.add(new CompletableFuture<>());
+
+        // Blocks are claimed by the helpers and by this thread, so it only waits for blocks that are being compressed
+        // and never for a helper that is queued behind it on the executor.
+        AtomicInteger next = new AtomicInteger();
+        Runnable helper = () -> {
+            for (int i; (i = next.getAndIncrement()) < count; ) {
+                final int start = offset + i * BLOCK;
+                try {
+                    blocks.get(i).complete(block(data, offset, start, Math.min(BLOCK, offset + length - start),
+                            i == count - 1));
+                } catch (RuntimeException | Error e) {
+                    blocks.get(i).completeExceptionally(e);
+                }
+            }
+        };
+        for (int i = Math.min(count, Runtime.getRuntime().availableProcessors()); i > 1; --i)
+            executor.execute(helper);
+        helper.run();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+        out.write(0x78);
+        out.write(flags());
+        long adler = 1;
+        for (CompletableFuture<Block> future : blocks) {
+            Block block;
+            try {
+                block = future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause)
+                    throw cause;
+                throw e;
+            }
+            out.write(block.data, 0, block.length);
+            adler = combine(adler, block.adler, block.input);
+        }
+        for (int shift = 24; shift >= 0; shift -= 8)
+            out.write((int) (adler >>> shift));
+        return out.toByteArray();
+    }
+
+    /**
+     * Releases pooled {@code Deflater}s; the instance can still be used afterward.
+     */
+    void end() {
+        for (Deflater deflater; (deflater = deflaters.poll()) != null; )
+            deflater.end();
+    }
+
+    /**
+     * Compresses one block into raw deflate data.
+     *
+     * @param data   data.
+     * @param offset offset of the whole data, the dictionary does not reach before it.
+     * @param start  offset of the block.
+     * @param length length of the block.
+     * @param last   if true the block is the final block of the stream.
+     */
+    private Block block(byte[] data, int offset, int start, int length, boolean last) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            deflater = new Deflater(level, true);
+
+        try {
+            deflater.reset();
+            final int dictionary = Math.min(WINDOW, start - offset);
+            if (dictionary > 0)
+                deflater.setDictionary(data, start - dictionary, dictionary);
+            deflater.setInput(data, start, length);
+            if (last)
+                deflater.finish();
+
+            byte[] out = new byte[length + length / 1000 + 64];
+            int n = 0;
+            while (true) {
+                n += deflater.deflate(out, n, out.length - n, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                if (last ? deflater.finished() : n < out.length)
+                    break;
+                if (n == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+            }
+
+            Adler32 adler = new Adler32();
+            adler.update(data, start, length);
+            return new Block(out, n, adler.getValue(), length);
+        } finally {
+            deflaters.offer(deflater);
+        }
+    }
+
+    /**
+     * @return second byte of zlib header with the compression level and without preset dictionary.
+     */
+    private int flags() {
+        int flags = switch (level) {
+            case 0, 1 -> 0;
+            case 2, 3, 4, 5 -> 1;
+            case 7, 8, 9 -> 3;
+            default -> 2;
+        } << 6;
+        return flags + 31 - (0x78 << 8 | flags) % 31;
+    }
+
+    /**
+     * Combines Adler-32 checksums of two consecutive parts of data, as {@code adler32_combine} of zlib does.
+     *
+     * @param adler1 checksum of the first part.
+     * @param adler2 checksum of the second part.
+     * @param length length of the second part.
+     * @return checksum of both parts.
+     */
+    static long combine(long adler1, long adler2, long length) {
+        final long rem = length % BASE;
+        long sum1 = adler1 & 0xFFFF,
+             sum2 = rem * sum1 % BASE;
+        sum1 += (adler2 & 0xFFFF) + BASE - 1;
+        sum2 += (adler1 >>> 16 & 0xFFFF) + (adler2 >>> 16 & 0xFFFF) + BASE - rem;
+        if (sum1 >= BASE)
+            sum1 -= BASE;
+        if (sum1 >= BASE)
+            sum1 -= BASE;
+        if (sum2 >= (long) BASE << 1)
+            sum2 -= (long) BASE << 1;
+        if (sum2 >= BASE)
+            sum2 -= BASE;
+        return sum1 | sum2 << 16;
+    }
+
+    /**
+     * Compressed block with the checksum of its uncompressed data.
+     */
+    private static final class Block {
+        final byte[] data;
+        final int length, input;
+        final long adler;
+
+        Block(byte[] data, int length, long adler, int input) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.input = input;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Colour type and bit depth of image data written by {@code APNGCollector}, with a palette for indexed colour.
+ * <p>
+ * Every frame of an animation shares one format, so it should be chosen for all frames at once:
+ * {@link #analyse(Iterable)} finds the smallest format that keeps every pixel as is,
+ * {@link #quantize(Iterable, int, boolean)} makes a palette of the given size for all frames.
+ *
+ * @see APNGCollector#setFormat(PixelFormat)
+ */
+public final class PixelFormat {
+    public final static byte GRAY = 0,
+                             RGB = 2,
+                             INDEXED = 3,
+                             GRAY_ALPHA = 4,
+                             RGBA = 6;
+
+    /**
+     * 8-bit RGBA, the format used by default.
+     */
+    public static final PixelFormat RGBA_8 = new PixelFormat(RGBA, (byte) 8, null, false);
+
+    private final byte type, depth;
+    private final int[] palette;
+    private final Map<Integer, Integer> indices;
+    private final boolean dither;
+
+    private PixelFormat(byte type, byte depth, int[] palette, boolean dither) {
+        this.type = type;
+        this.depth = depth;
+        this.palette = palette;
+        this.dither = dither;
+
+        if (palette != null) {
+            indices = new HashMap<>();
+            for (int i = palette.length - 1; i >= 0; --i)
+                indices.put(palette[i], i);
+        } else
+            indices = null;
+    }
+
+    /**
+     * Makes a format of the colour type without palette.
+     *
+     * @param type  {@code GRAY}, {@code RGB}, {@code GRAY_ALPHA} or {@code RGBA}.
+     * @param depth bit depth: 1, 2, 4 or 8 for {@code GRAY}, 8 for other types.
+     * @return pixel format.
+     * @throws IllegalArgumentException if the combination is not allowed.
+     */
+    public static PixelFormat of(byte type, int depth) {
+        boolean valid = switch (type) {
+            case GRAY -> depth == 1 || depth == 2 || depth == 4 || depth == 8;
+            case RGB, GRAY_ALPHA, RGBA -> depth == 8;
+            default -> false;
+        };
+        if (!valid)
+            throw new IllegalArgumentException("Unsupported colour type " + type + " with bit depth " + depth);
+        return new PixelFormat(type, (byte) depth, null, false);
+    }
+
+    /**
+     * Makes an indexed colour format with the palette.
+     *
+     * @param palette non-premultiplied ARGB colours, from 1 to 256.
+     * @param dither  if true colours that are not in the palette are dithered.
+     * @return pixel format.
+     */
+    public static PixelFormat indexed(int[] palette, boolean dither) {
+        if (palette.length == 0 || palette.length > 256)
+            throw new IllegalArgumentException("Palette size must be from 1 to 256: " + palette.length);
+
+        int[] colors = palette.clone();
+        for (int i = 0; i < colors.length; ++i)
+            colors[i] = normalize(colors[i]);
+        Integer[] order = new Integer[colors.length];
+        for (int i = 0; i < order.length; ++i)
+            order[i] = colors[i];
+        // Colours with alpha go first, so the tRNS chunk may omit the opaque ones.
+        Arrays.sort(order, Comparator.comparingInt(c -> c >>> 24 == 255 ? 1 : 0));
+        for (int i = 0; i < order.length; ++i)
+            colors[i] = order[i];
+
+        return new PixelFormat(INDEXED, depth(colors.length), colors, dither);
+    }
+
+    /**
+     * Makes an indexed colour format with the palette as it is written in PLTE and tRNS chunks, without sorting.
+     *
+     * @param palette non-premultiplied ARGB colours.
+     * @param depth   bit depth of the palette index.
+     * @return pixel format.
+     */
+    static PixelFormat palette(int[] palette, byte depth) {
+        int[] colors = palette.clone();
+        for (int i = 0; i < colors.length; ++i)
+            colors[i] = normalize(colors[i]);
+        return new PixelFormat(INDEXED, depth, colors, false);
+    }
+
+    /**
+     * Finds the smallest format that represents every pixel of every frame exactly.
+     * <pre>
+     * 256 colours or less → indexed colour with 1, 2, 4 or 8 bits
+     * opaque and gray     → grayscale with 1, 2, 4 or 8 bits
+     * gray with alpha     → grayscale with alpha
+     * opaque              → RGB
+     * otherwise           → RGBA
+     * </pre>
+     *
+     * @param frames all frames of the animation, including the static image.
+     * @return pixel format.
+     */
+    public static PixelFormat analyse(Iterable<BufferedImage> frames) {
+        boolean alpha = false, gray = true;
+        int grayDepth = 1;
+        Map<Integer, Integer> colors = new HashMap<>();
+        int[] row = new int[0];
+
+        for (BufferedImage frame : frames) {
+            final int width = frame.getWidth();
+            if (row.length < width)
+                row = new int[width];
+
+            for (int y = 0; y < frame.getHeight(); ++y) {
+                PNGEncoder.readRow(frame, y, row);
+                for (int x = 0; x < width; ++x) {
+                    int p = normalize(row[x]),
+                        r = p >>> 16 & 0xFF,
+                        g = p >>> 8 & 0xFF,
+                        b = p & 0xFF;
+
+                    alpha |= p >>> 24 != 255;
+                    if (gray && (r != g || g != b))
+                        gray = false;
+                    while (gray && grayDepth < 8 && r % (255 / ((1 << grayDepth) - 1)) != 0)
+                        grayDepth <<= 1;
+                    if (colors.size() <= 256)
+                        colors.merge(p, 1, Integer::sum);
+                }
+            }
+        }
+
+        if (gray && !alpha && grayDepth <= depth(colors.size()))
+            return of(GRAY, grayDepth);
+        if (colors.size() <= 256)
+            return indexed(colors.keySet().stream().mapToInt(Integer::intValue).toArray(), false);
+        if (gray)
+            return of(alpha ? GRAY_ALPHA : GRAY, 8);
+        return of(alpha ? RGBA : RGB, 8);
+    }
+
+    /**
+     * Reduces colours of every frame to the shared palette by the median cut of the colour histogram.
+     *
+     * @param frames all frames of the animation, including the static image.
+     * @param colors maximum number of colours, from 2 to 256.
+     * @param dither if true colours are dithered with Floyd–Steinberg error diffusion.
+     * @return indexed colour format, or the result of {@link #analyse(Iterable)}
+     *         if the frames fit into the palette exactly.
+     */
+    public static PixelFormat quantize(Iterable<BufferedImage> frames, int colors, boolean dither) {
+        if (colors < 2 || colors > 256)
+            throw new IllegalArgumentException("Number of colours must be from 2 to 256: " + colors);
+
+        Map<Integer, int[]> histogram = new HashMap<>();
+        int[] row = new int[0];
+        for (BufferedImage frame : frames) {
+            final int width = frame.getWidth();
+            if (row.length < width)
+                row = new int[width];
+
+            for (int y = 0; y < frame.getHeight(); ++y) {
+                PNGEncoder.readRow(frame, y, row);
+                for (int x = 0; x < width; ++x)
+                    ++histogram.computeIfAbsent(normalize(row[x]), k -> new int[1])[0];
+            }
+        }
+
+        if (histogram.size() <= colors)
+            return analyse(frames);
+
+        // Fully transparent pixels keep their own entry, they are what frames are blended over.
+        boolean transparent = histogram.remove(0) != null;
+        int[][] entries = new int[histogram.size()][];
+        int i = 0;
+        for (var e : histogram.entrySet())
+            entries[i++] = new int[]{e.getKey(), e.getValue()[0]};
+
+        List<int[]> palette = new ArrayList<>();
+        if (transparent)
+            palette.add(new int[]{0});
+        for (int[] color : medianCut(entries, transparent ? colors - 1 : colors))
+            palette.add(color);
+
+        return indexed(palette.stream().mapToInt(c -> c[0]).toArray(), dither);
+    }
+
+    /**
+     * Splits the colours into boxes, every time splitting the box with the largest channel range
+     * at the weighted median of that channel.
+     *
+     * @param entries colours and their counts.
+     * @param colors  number of boxes.
+     * @return weighted average colour of every box.
+     */
+    private static List<int[]> medianCut(int[][] entries, int colors) {
+        List<int[][]> boxes = new ArrayList<>();
+        boxes.add(entries);
+
+        while (boxes.size() < colors) {
+            int best = -1, channel = 0, range = 0;
+            for (int b = 0; b < boxes.size(); ++b) {
+                int[][] box = boxes.get(b);
+                if (box.length < 2)
+                    continue;
+                for (int c = 0; c < 4; ++c) {
+                    int min = 255, max = 0;
+                    for (int[] e : box) {
+                        int v = e[0] >>> (c * 8) & 0xFF;
+                        min = Math.min(min, v);
+                        max = Math.max(max, v);
+                    }
+                    if (max - min > range) {
+                        range = max - min;
+                        best = b;
+                        channel = c;
+                    }
+                }
+            }
+            if (best < 0)
+                break;
+
+            final int shift = channel * 8;
+            int[][] box = boxes.get(best);
+            Arrays.sort(box, Comparator.comparingInt(e -> e[0] >>> shift & 0xFF));
+
+            long total = 0, half = 0;
+            for (int[] e : box)
+                total += e[1];
+            int split = 1;
+            for (int k = 0; k < box.length - 1; ++k) {
+                half += box[k][1];
+                split = k + 1;
+                if (half * 2 >= total)
+                    break;
+            }
+
+            boxes.set(best, Arrays.copyOfRange(box, 0, split));
+            boxes.add(Arrays.copyOfRange(box, split, box.length));
+        }
+
+        List<int[]> result = new ArrayList<>();
+        for (int[][] box : boxes) {
+            long a = 0, r = 0, g = 0, b = 0, n = 0;
+            for (int[] e : box) {
+                a += (long) (e[0] >>> 24) * e[1];
+                r += (long) (e[0] >>> 16 & 0xFF) * e[1];
+                g += (long) (e[0] >>> 8 & 0xFF) * e[1];
+                b += (long) (e[0] & 0xFF) * e[1];
+                n += e[1];
+            }
+            result.add(new int[]{normalize((int) ((a + n / 2) / n) << 24 | (int) ((r + n / 2) / n) << 16
+                    | (int) ((g + n / 2) / n) << 8 | (int) ((b + n / 2) / n))});
+        }
+        return result;
+    }
+
+    /**
+     * @return colour type written in IHDR chunk.
+     */
+    public byte getColorType() {
+        return type;
+    }
+
+    /**
+     * @return bit depth written in IHDR chunk.
+     */
+    public byte getBitDepth() {
+        return depth;
+    }
+
+    /**
+     * @return copy of the palette in non-premultiplied ARGB, or null if the colour type is not indexed.
+     */
+    public int[] getPalette() {
+        return palette == null ? null : palette.clone();
+    }
+
+    /**
+     * @return true if colours missing from the palette are dithered.
+     */
+    public boolean isDithered() {
+        return dither;
+    }
+
+    /**
+     * @return true if a fully transparent pixel can be written.
+     */
+    public boolean hasAlpha() {
+        return type == RGBA || type == GRAY_ALPHA || type == INDEXED && indices.containsKey(0);
+    }
+
+    /**
+     * @param argb colour.
+     * @return true if the colour is written without changes.
+     */
+    boolean contains(int argb) {
+        final int p = normalize(argb),
+                  r = p >>> 16 & 0xFF;
+        final boolean gray = r == (p >>> 8 & 0xFF) && r == (p & 0xFF);
+        return switch (type) {
+            case GRAY -> p >>> 24 == 255 && gray && r % (255 / ((1 << depth) - 1)) == 0;
+            case RGB -> p >>> 24 == 255;
+            case INDEXED -> indices.containsKey(p);
+            case GRAY_ALPHA -> gray;
+            default -> true;
+        };
+    }
+
+    /**
+     * @return number of bits for one pixel.
+     */
+    int bitsPerPixel() {
+        return switch (type) {
+            case RGB -> 3 * depth;
+            case GRAY_ALPHA -> 2 * depth;
+            case RGBA -> 4 * depth;
+            default -> depth;
+        };
+    }
+
+    /**
+     * @return palette, not copied, or null.
+     */
+    int[] palette() {
+        return palette;
+    }
+
+    /**
+     * @param argb normalized colour.
+     * @return index of the colour in the palette, or -1.
+     */
+    int indexOf(int argb) {
+        Integer index = indices.get(argb);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param argb colour.
+     * @return index of the nearest colour in the palette.
+     */
+    int nearest(int argb) {
+        int best = 0;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < palette.length; ++i) {
+            long d = distance(argb, palette[i]);
+            if (d < min) {
+                min = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return squared distance between colours, weighted by alpha as if both were blended over black and white.
+     */
+    static long distance(int p, int q) {
+        int da = (p >>> 24) - (q >>> 24);
+        long sum = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int a = (p >>> shift & 0xFF) * (p >>> 24) / 255,
+                b = (q >>> shift & 0xFF) * (q >>> 24) / 255,
+                dc = a - b;
+            sum += dc * dc + (long) (dc - da) * (dc - da);
+        }
+        return sum;
+    }
+
+    /**
+     * @return the colour, or 0 if it is fully transparent.
+     */
+    static int normalize(int argb) {
+        return argb >>> 24 == 0 ? 0 : argb;
+    }
+
+    /**
+     * @param colors number of colours.
+     * @return the smallest bit depth of the palette index.
+     */
+    private static byte depth(int colors) {
+        if (colors <= 2)
+            return 1;
+        if (colors <= 4)
+            return 2;
+        return (byte) (colors <= 16 ? 4 : 8);
+    }
+
+    @Override
+    public String toString() {
+        return "PixelFormat{type=" + type + ", depth=" + depth
+                + (palette != null ? ", colors=" + palette.length + (dither ? ", dithered" : "") : "") + '}';
+    }
+}
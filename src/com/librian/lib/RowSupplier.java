@@ -0,0 +1,20 @@
+package com.librian.lib;
+
+/**
+ * Source of the pixels of a frame that is read row by row, so that the frame does not have to exist
+ * as a whole image, e.g. rows rendered on demand or read from off-heap memory.
+ *
+ * @see APNGCollector#addFrame(int, int, RowSupplier, int, int, short, short, byte, byte)
+ */
+@FunctionalInterface
+public interface RowSupplier {
+    /**
+     * Writes one row of the frame. Rows are requested in order from the top, every row once,
+     * on the thread that adds the frame.
+     *
+     * @param y    row, from 0 to the frame height - 1.
+     * @param argb destination for non-premultiplied ARGB pixels of the row, from index 0 to the frame width - 1;
+     *             it may be longer than the frame width.
+     */
+    void getRow(int y, int[] argb);
+}
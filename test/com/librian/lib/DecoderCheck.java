@@ -0,0 +1,195 @@
+package com.librian.lib;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static com.librian.lib.APNGCollector.*;
+import static com.librian.lib.Chunk.*;
+import static com.librian.lib.PixelFormat.*;
+
+/**
+ * Check of {@link PNGDecoder}: the static image of every sample, of encoder output in every pixel format,
+ * of colour keys in tRNS chunk and of 16-bit and interlaced images written by {@code ImageIO} must equal
+ * the raster of {@code ImageIO} sample for sample. 16-bit samples are compared by their high byte and samples
+ * of fewer than 8 bits are scaled to 8 bits, as the decoder does. Run by {@code gradle check} with the directory
+ * of the samples.
+ */
+final class DecoderCheck {
+    private static final int WIDTH = 37, HEIGHT = 19;
+
+    private static int failed;
+
+    public static void main(String[] args) throws IOException {
+        try (Stream<Path> files = Files.walk(Path.of(args.length > 0 ? args[0] : "res"))) {
+            List<Path> samples = files.filter(p -> p.getFileName().toString().endsWith(".png")).sorted().toList();
+            for (Path sample : samples)
+                check(sample.toString(), Files.readAllBytes(sample));
+        }
+
+        final Random random = new Random(1);
+        final BufferedImage gray = image(random, true, false),
+                            grayAlpha = image(random, true, true),
+                            opaque = image(random, false, false),
+                            translucent = image(random, false, true);
+        for (int depth : new int[]{1, 2, 4, 8})
+            check("GRAY " + depth, encode(gray, PixelFormat.of(GRAY, depth), null));
+        check("GRAY_ALPHA 8", encode(grayAlpha, PixelFormat.of(GRAY_ALPHA, 8), null));
+        check("RGB 8", encode(opaque, PixelFormat.of(RGB, 8), null));
+        check("RGBA 8", encode(translucent, PixelFormat.RGBA_8, null));
+        check("INDEXED with tRNS", encode(translucent, PixelFormat.indexed(new int[]{
+                0x00000000, 0x80FF0000, 0x4000FF00, 0xFF0000FF, 0xFFFFFFFF, 0xFF123456, 0xC0808080}, false), null));
+
+        // Colour keys: the pixel of the first colour of the image is transparent.
+        final int key = opaque.getRGB(0, 0), level = gray.getRGB(0, 0) & 0xFF;
+        check("RGB 8 with tRNS", encode(opaque, PixelFormat.of(RGB, 8), new byte[]{
+                0, (byte) (key >>> 16), 0, (byte) (key >>> 8), 0, (byte) key}));
+        check("GRAY 8 with tRNS", encode(gray, PixelFormat.of(GRAY, 8), new byte[]{0, (byte) level}));
+
+        check("GRAY 16", write(gray16(random), false));
+        check("GRAY 16 interlaced", write(gray16(random), true));
+        check("RGB 8 interlaced", write(rgb(opaque), true));
+        check("RGBA 8 interlaced", write(translucent, true));
+
+        if (failed > 0) {
+            System.err.println(failed + " decoder checks failed");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return image of random pixels.
+     */
+    private static BufferedImage image(Random random, boolean gray, boolean alpha) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x) {
+                final int a = alpha ? random.nextInt(256) : 0xFF,
+                          rgb = gray ? random.nextInt(256) * 0x010101 : random.nextInt(1 << 24);
+                image.setRGB(x, y, a << 24 | rgb);
+            }
+        return image;
+    }
+
+    private static BufferedImage gray16(Random random) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_GRAY);
+        for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x)
+                image.getRaster().setSample(x, y, 0, random.nextInt(1 << 16));
+        return image;
+    }
+
+    private static BufferedImage rgb(BufferedImage source) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        image.getGraphics().drawImage(source, 0, 0, null);
+        return image;
+    }
+
+    /**
+     * Encodes the image into a PNG of the format.
+     *
+     * @param key content of tRNS chunk with the colour key, or null.
+     */
+    private static byte[] encode(BufferedImage image, PixelFormat format, byte[] key) throws IOException {
+        final PNGEncoder encoder = new PNGEncoder(9, PNG_FILTER_ADAPTIVE, format);
+        final ChunkWriter writer = new ChunkWriter();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final byte[] data = encoder.encode(image);
+            out.write(SIGNATURE);
+            writer.writeIHDR(out, WIDTH, HEIGHT, format.getBitDepth(), format.getColorType());
+            if (format.getColorType() == INDEXED) {
+                writer.writePLTE(out, format.palette());
+                writer.writeTRNS(out, format.palette());
+            }
+            if (key != null)
+                writer.writeChunk(out, TRNS_TYPE, key, 0, key.length);
+            writer.writeChunk(out, IDAT_TYPE, data, 0, data.length);
+            out.write(IEND);
+        } finally {
+            encoder.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the image with {@code ImageIO}, interlaced with Adam7 if {@code interlaced} is true.
+     */
+    private static byte[] write(BufferedImage image, boolean interlaced) throws IOException {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setProgressiveMode(interlaced ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static void check(String name, byte[] png) throws IOException {
+        final BufferedImage expected = ImageIO.read(new ByteArrayInputStream(png));
+        final BufferedImage actual;
+        try (APNGReader reader = new APNGReader(ByteBuffer.wrap(png))) {
+            actual = reader.next().image;
+        } catch (IOException | RuntimeException e) {
+            System.err.println(name + ": " + e);
+            ++failed;
+            return;
+        }
+
+        final int[] argb = ((DataBufferInt) actual.getRaster().getDataBuffer()).getData();
+        final Raster raster = expected.getRaster();
+        final ColorModel model = expected.getColorModel();
+        for (int y = 0; y < expected.getHeight(); ++y)
+            for (int x = 0; x < expected.getWidth(); ++x) {
+                final int e = expected(raster, model, x, y),
+                          a = argb[y * actual.getWidth() + x];
+                if (e != a) {
+                    System.err.printf("%s: pixel %d,%d is %08x instead of %08x%n", name, x, y, a, e);
+                    ++failed;
+                    return;
+                }
+            }
+    }
+
+    /**
+     * @return non-premultiplied ARGB pixel made of the samples of the raster.
+     */
+    private static int expected(Raster raster, ColorModel model, int x, int y) {
+        if (model instanceof IndexColorModel palette)
+            return palette.getRGB(raster.getSample(x, y, 0));
+
+        final int bands = raster.getNumBands();
+        final int[] s = new int[bands];
+        for (int b = 0; b < bands; ++b) {
+            final int size = model.getComponentSize(b),
+                      sample = raster.getSample(x, y, b);
+            s[b] = size == 16 ? sample >>> 8 : size < 8 ? sample * 255 / ((1 << size) - 1) : sample;
+        }
+        return switch (bands) {
+            case 1 -> 0xFF000000 | s[0] * 0x010101;
+            case 2 -> s[1] << 24 | s[0] * 0x010101;
+            case 3 -> 0xFF000000 | s[0] << 16 | s[1] << 8 | s[2];
+            default -> s[3] << 24 | s[0] << 16 | s[1] << 8 | s[2];
+        };
+    }
+}
@@ -0,0 +1,278 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * Check of {@link APNGEditor}: after every edit, each composited frame of the written animation must equal
+ * the composited frame of the source it comes from, and each frame must have the delay it is given. The sources
+ * contain partial frames, frames blended with {@code APNG_BLEND_OP_OVER} and disposed with
+ * {@code APNG_DISPOSE_OP_PREVIOUS}, with the static image inside and outside the animation.
+ * Run by {@code gradle check}.
+ */
+final class EditorCheck {
+    private static final int WIDTH = 32, HEIGHT = 24;
+
+    private static int failed;
+
+    public static void main(String[] args) throws IOException {
+        final Random random = new Random(1);
+        final Animation outside = new Animation("outside", outside(random)),
+                        inside = new Animation("inside", inside(random));
+
+        for (Animation animation : List.of(outside, inside)) {
+            final int n = animation.frames.size();
+            check(animation, "as is", (editor, model) -> {
+            });
+            check(animation, "reverse", (editor, model) -> {
+                editor.reverse();
+                Collections.reverse(model);
+            });
+            for (int from = 0; from < n; ++from)
+                for (int to = from + 1; to <= n; ++to) {
+                    final int a = from, b = to;
+                    check(animation, "trim(" + a + ", " + b + ")", (editor, model) -> {
+                        editor.trim(a, b);
+                        model.subList(b, model.size()).clear();
+                        model.subList(0, a).clear();
+                    });
+                }
+            check(animation, "append(this)", (editor, model) -> {
+                editor.append(editor);
+                model.addAll(copy(model));
+            });
+            check(animation, "setDelays", (editor, model) -> {
+                editor.setDelays((short) 3, (short) 50);
+                for (Item item : model)
+                    item.delay(3, 50);
+            });
+            check(animation, "trim, reverse, append(this), setDelays", (editor, model) -> {
+                editor.trim(1, n - 1);
+                model.subList(n - 1, model.size()).clear();
+                model.subList(0, 1).clear();
+                editor.reverse();
+                Collections.reverse(model);
+                editor.append(editor);
+                model.addAll(copy(model));
+                editor.setDelays((short) 7, (short) 100);
+                for (Item item : model)
+                    item.delay(7, 100);
+            });
+            check(animation, "reverse, append(this), trim", (editor, model) -> {
+                editor.reverse();
+                Collections.reverse(model);
+                editor.append(editor);
+                model.addAll(copy(model));
+                editor.trim(n / 2, n + n / 2);
+                model.subList(n + n / 2, model.size()).clear();
+                model.subList(0, n / 2).clear();
+            });
+        }
+
+        for (Animation other : List.of(inside, outside))
+            for (Animation animation : List.of(outside, inside))
+                check(animation, "append(" + other.name + ")", (editor, model) -> {
+                    editor.append(new APNGEditor(ByteBuffer.wrap(other.data)));
+                    model.addAll(other.items());
+                });
+
+        if (failed > 0) {
+            System.err.println(failed + " editor checks failed");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Static image outside the animation, followed by frames of every kind.
+     */
+    private static byte[] outside(Random random) throws IOException {
+        APNGCollector collector = new APNGCollector(image(random, WIDTH, HEIGHT, false), 0);
+        collector.addFrame(image(random, WIDTH, HEIGHT, false), 0, 0, (short) 1, (short) 10,
+                APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+        frames(random, collector);
+        return collector.build();
+    }
+
+    /**
+     * Static image as the first frame, blended over the empty canvas and followed by frames of every kind.
+     */
+    private static byte[] inside(Random random) throws IOException {
+        APNGCollector collector = new APNGCollector(image(random, WIDTH, HEIGHT, true), 0, (short) 1, (short) 10,
+                APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_OVER);
+        frames(random, collector);
+        return collector.build();
+    }
+
+    private static void frames(Random random, APNGCollector collector) throws IOException {
+        collector.addFrame(image(random, 10, 8, true), 4, 3, (short) 2, (short) 10,
+                APNG_DISPOSE_OP_PREVIOUS, APNG_BLEND_OP_OVER);
+        collector.addFrame(image(random, 12, 10, true), 8, 8, (short) 3, (short) 10,
+                APNG_DISPOSE_OP_BACKGROUND, APNG_BLEND_OP_SOURCE);
+        collector.addFrame(image(random, 16, 12, true), 0, 0, (short) 4, (short) 10,
+                APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_OVER);
+        collector.addFrame(image(random, WIDTH, HEIGHT, true), 0, 0, (short) 5, (short) 10,
+                APNG_DISPOSE_OP_PREVIOUS, APNG_BLEND_OP_OVER);
+        collector.addFrame(image(random, 12, 14, true), 20, 10, (short) 6, (short) 10,
+                APNG_DISPOSE_OP_PREVIOUS, APNG_BLEND_OP_SOURCE);
+        collector.addFrame(image(random, WIDTH, HEIGHT, true), 0, 0, (short) 8, (short) 10,
+                APNG_DISPOSE_OP_PREVIOUS, APNG_BLEND_OP_SOURCE);
+        collector.addFrame(image(random, 6, 6, true), 1, 17, (short) 7, (short) 10,
+                APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_OVER);
+    }
+
+    /**
+     * @return image of random pixels, with transparent and partly transparent ones if {@code alpha} is true.
+     */
+    private static BufferedImage image(Random random, int width, int height, boolean alpha) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x) {
+                final int a = !alpha ? 0xFF : switch (random.nextInt(3)) {
+                    case 0 -> 0;
+                    case 1 -> 0xFF;
+                    default -> random.nextInt(256);
+                };
+                image.setRGB(x, y, a << 24 | random.nextInt(1 << 24));
+            }
+        return image;
+    }
+
+    private static void check(Animation animation, String name, Edit edit) throws IOException {
+        final APNGEditor editor = new APNGEditor(ByteBuffer.wrap(animation.data));
+        final List<Item> model = animation.items();
+        edit.apply(editor, model);
+        final String label = animation.name + " " + name;
+
+        final byte[] data = editor.toByteArray();
+        try {
+            APNGInfo.probe(ByteBuffer.wrap(data), true);
+        } catch (IOException e) {
+            fail(label, "invalid result: " + e.getMessage());
+            return;
+        }
+
+        List<Frame> frames = new ArrayList<>();
+        List<BufferedImage> images = new ArrayList<>();
+        try (APNGReader reader = new APNGReader(ByteBuffer.wrap(data))) {
+            reader.forEachRemaining(frame -> {
+                if (frame.animated)
+                    frames.add(frame);
+            });
+        }
+        try (APNGReader reader = new APNGReader(ByteBuffer.wrap(data))) {
+            reader.composited().forEachRemaining(images::add);
+        }
+
+        if (images.size() != model.size()) {
+            fail(label, images.size() + " frames instead of " + model.size());
+            return;
+        }
+        for (int k = 0; k < model.size(); ++k) {
+            final Item item = model.get(k);
+            final Frame frame = frames.get(k);
+            if (frame.numerator != item.numerator || frame.denominator != item.denominator) {
+                fail(label, "frame " + k + " has delay " + frame.numerator + "/" + frame.denominator
+                        + " instead of " + item.numerator + "/" + item.denominator);
+                return;
+            }
+            final int diff = difference(item.animation.frames.get(item.index), images.get(k));
+            if (diff >= 0) {
+                fail(label, "frame " + k + " (" + item.animation.name + " frame " + item.index
+                        + ") differs at pixel " + diff);
+                return;
+            }
+        }
+    }
+
+    private static void fail(String label, String message) {
+        System.err.println(label + ": " + message);
+        ++failed;
+    }
+
+    /**
+     * @return index of the first pixel that differs, or -1; fully transparent pixels are equal.
+     */
+    private static int difference(BufferedImage expected, BufferedImage actual) {
+        final int[] e = expected.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH),
+                    a = actual.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        for (int i = 0; i < e.length; ++i)
+            if ((e[i] >>> 24 == 0 ? 0 : e[i]) != (a[i] >>> 24 == 0 ? 0 : a[i]))
+                return i;
+        return -1;
+    }
+
+    private static List<Item> copy(List<Item> items) {
+        List<Item> copy = new ArrayList<>();
+        for (Item item : items)
+            copy.add(new Item(item.animation, item.index, item.numerator, item.denominator));
+        return copy;
+    }
+
+    /**
+     * Source animation with its composited frames and delays.
+     */
+    private static final class Animation {
+        final String name;
+        final byte[] data;
+        final List<BufferedImage> frames = new ArrayList<>();
+        final List<Frame> raw = new ArrayList<>();
+
+        Animation(String name, byte[] data) throws IOException {
+            this.name = name;
+            this.data = data;
+            try (APNGReader reader = new APNGReader(ByteBuffer.wrap(data))) {
+                reader.forEachRemaining(frame -> {
+                    if (frame.animated)
+                        raw.add(frame);
+                });
+            }
+            try (APNGReader reader = new APNGReader(ByteBuffer.wrap(data))) {
+                for (Iterator<BufferedImage> it = reader.composited(); it.hasNext(); )
+                    frames.add(it.next());
+            }
+        }
+
+        /**
+         * @return model of the frames of an editor of this animation as it is.
+         */
+        List<Item> items() {
+            List<Item> items = new ArrayList<>();
+            for (int i = 0; i < raw.size(); ++i)
+                items.add(new Item(this, i, raw.get(i).numerator, raw.get(i).denominator));
+            return items;
+        }
+    }
+
+    /**
+     * Expected frame of the edited animation: a frame of a source and its delay.
+     */
+    private static final class Item {
+        final Animation animation;
+        final int index;
+        short numerator, denominator;
+
+        Item(Animation animation, int index, short numerator, short denominator) {
+            this.animation = animation;
+            this.index = index;
+            this.numerator = numerator;
+            this.denominator = denominator;
+        }
+
+        void delay(int numerator, int denominator) {
+            this.numerator = (short) numerator;
+            this.denominator = (short) denominator;
+        }
+    }
+
+    private interface Edit {
+        void apply(APNGEditor editor, List<Item> model) throws IOException;
+    }
+}
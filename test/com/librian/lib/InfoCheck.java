@@ -0,0 +1,123 @@
+package com.librian.lib;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.librian.lib.APNGCollector.*;
+import static com.librian.lib.Chunk.*;
+
+/**
+ * Check of the validation of {@link APNGInfo}: image data split by another chunk must be rejected, whether
+ * the static image is part of the animation or not, while valid streams are accepted. Run by {@code gradle check}.
+ */
+final class InfoCheck {
+    private static final int TEXT_TYPE = 0x74455874;
+    private static final int WIDTH = 16, HEIGHT = 8;
+
+    private static int failed;
+
+    public static void main(String[] args) throws IOException {
+        final byte[] data = new PNGEncoder(9, PNG_FILTER_NONE, PixelFormat.RGBA_8)
+                .encode(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB));
+        final int half = data.length / 2;
+        final ChunkWriter writer = new ChunkWriter();
+        final byte[] text = "Comment\0split".getBytes(StandardCharsets.ISO_8859_1);
+
+        // PNG: IDAT, IDAT, tEXt is valid; IDAT, tEXt, IDAT is not.
+        accept("IDAT IDAT tEXt", png(writer, out -> {
+            writer.writeChunk(out, IDAT_TYPE, data, 0, half);
+            writer.writeChunk(out, IDAT_TYPE, data, half, data.length - half);
+            writer.writeChunk(out, TEXT_TYPE, text, 0, text.length);
+        }));
+        reject("IDAT tEXt IDAT", png(writer, out -> {
+            writer.writeChunk(out, IDAT_TYPE, data, 0, half);
+            writer.writeChunk(out, TEXT_TYPE, text, 0, text.length);
+            writer.writeChunk(out, IDAT_TYPE, data, half, data.length - half);
+        }));
+
+        // APNG with the static image outside the animation.
+        accept("acTL IDAT IDAT fcTL fdAT", png(writer, out -> {
+            writer.writeAcTL(out, 1, 0);
+            writer.writeChunk(out, IDAT_TYPE, data, 0, half);
+            writer.writeChunk(out, IDAT_TYPE, data, half, data.length - half);
+            frame(writer, out, data, 0);
+        }));
+        reject("acTL IDAT tEXt IDAT fcTL fdAT", png(writer, out -> {
+            writer.writeAcTL(out, 1, 0);
+            writer.writeChunk(out, IDAT_TYPE, data, 0, half);
+            writer.writeChunk(out, TEXT_TYPE, text, 0, text.length);
+            writer.writeChunk(out, IDAT_TYPE, data, half, data.length - half);
+            frame(writer, out, data, 0);
+        }));
+
+        // APNG with the static image as the first frame.
+        accept("acTL fcTL IDAT IDAT", png(writer, out -> {
+            writer.writeAcTL(out, 1, 0);
+            writer.writeFcTL(out, 0, WIDTH, HEIGHT, 0, 0, (short) 1, (short) 10,
+                    APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+            writer.writeChunk(out, IDAT_TYPE, data, 0, half);
+            writer.writeChunk(out, IDAT_TYPE, data, half, data.length - half);
+        }));
+        reject("acTL fcTL IDAT tEXt IDAT", png(writer, out -> {
+            writer.writeAcTL(out, 1, 0);
+            writer.writeFcTL(out, 0, WIDTH, HEIGHT, 0, 0, (short) 1, (short) 10,
+                    APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+            writer.writeChunk(out, IDAT_TYPE, data, 0, half);
+            writer.writeChunk(out, TEXT_TYPE, text, 0, text.length);
+            writer.writeChunk(out, IDAT_TYPE, data, half, data.length - half);
+        }));
+        reject("acTL IDAT fcTL fdAT IDAT", png(writer, out -> {
+            writer.writeAcTL(out, 1, 0);
+            writer.writeChunk(out, IDAT_TYPE, data, 0, data.length);
+            frame(writer, out, data, 0);
+            writer.writeChunk(out, IDAT_TYPE, data, 0, data.length);
+        }));
+
+        if (failed > 0) {
+            System.err.println(failed + " info checks failed");
+            System.exit(1);
+        }
+    }
+
+    private static void frame(ChunkWriter writer, ByteArrayOutputStream out, byte[] data, int sequence)
+            throws IOException {
+        writer.writeFcTL(out, sequence, WIDTH, HEIGHT, 0, 0, (short) 1, (short) 10,
+                APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_SOURCE);
+        writer.writeFdAT(out, sequence + 1, data, 0, data.length);
+    }
+
+    private static byte[] png(ChunkWriter writer, Body body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(SIGNATURE);
+        writer.writeIHDR(out, WIDTH, HEIGHT, PixelFormat.RGBA_8.getBitDepth(), PixelFormat.RGBA_8.getColorType());
+        body.write(out);
+        out.write(IEND);
+        return out.toByteArray();
+    }
+
+    private static void accept(String name, byte[] png) {
+        try {
+            APNGInfo.probe(ByteBuffer.wrap(png), true);
+        } catch (IOException e) {
+            System.err.println(name + ": rejected: " + e.getMessage());
+            ++failed;
+        }
+    }
+
+    private static void reject(String name, byte[] png) {
+        try {
+            APNGInfo info = APNGInfo.probe(ByteBuffer.wrap(png), true);
+            System.err.println(name + ": accepted with " + info.getFrameCount() + " frames");
+            ++failed;
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private interface Body {
+        void write(ByteArrayOutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,113 @@
+package com.librian.lib;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.librian.lib.APNGCollector.*;
+
+/**
+ * Regression check of {@link APNGResizer}: every composited frame of the resized animation must equal the composited
+ * frame of the source animation scaled as a whole. Run by {@code gradle check} with the directory of the samples.
+ */
+final class ResizerCheck {
+    private static final int[][] SIZES = {{4, 4}, {37, 23}, {64, 64}, {100, 61}};
+
+    public static void main(String[] args) throws IOException {
+        int failed = 0;
+        failed += check("overlapping OVER frames", overlapping(), 4, 4);
+
+        try (Stream<Path> files = Files.walk(Path.of(args.length > 0 ? args[0] : "res"))) {
+            List<Path> samples = files.filter(p -> p.getFileName().toString().equals("test.png")).sorted().toList();
+            for (Path sample : samples)
+                for (int[] size : SIZES)
+                    failed += check(sample.toString(), Files.readAllBytes(sample), size[0], size[1]);
+        }
+
+        if (failed > 0) {
+            System.err.println(failed + " resize checks failed");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * An opaque black static image and five opaque red frames blended over it at the same place, whose edges fall
+     * inside the resized pixels.
+     */
+    private static byte[] overlapping() throws IOException {
+        BufferedImage still = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+        Arrays.fill(((DataBufferInt) still.getRaster().getDataBuffer()).getData(), 0xFF000000);
+        BufferedImage red = new BufferedImage(3, 3, BufferedImage.TYPE_INT_ARGB);
+        Arrays.fill(((DataBufferInt) red.getRaster().getDataBuffer()).getData(), 0xFFFF0000);
+
+        APNGCollector collector = new APNGCollector(still, 0);
+        for (int i = 0; i < 5; ++i)
+            collector.addFrame(red, 1, 1, (short) 1, (short) 10, APNG_DISPOSE_OP_NONE, APNG_BLEND_OP_OVER);
+        return collector.build();
+    }
+
+    /**
+     * @return 1 if the resized animation differs from the scaled source, otherwise 0.
+     */
+    private static int check(String name, byte[] source, int width, int height) throws IOException {
+        APNGResizer resizer = new APNGResizer(width, height);
+        resizer.setKeepAspectRatio(false);
+        byte[] resized = resizer.resize(ByteBuffer.wrap(source));
+
+        try (APNGReader expected = new APNGReader(ByteBuffer.wrap(source));
+             APNGReader actual = new APNGReader(ByteBuffer.wrap(resized))) {
+            final Dimension size = resizer.getSize(expected.getWidth(), expected.getHeight());
+            final FrameScaler scaler = new FrameScaler(expected.getWidth(), expected.getHeight(),
+                    size.width, size.height);
+            final int[] scaled = new int[size.width * size.height];
+
+            Iterator<BufferedImage> e = expected.composited(), a = actual.composited();
+            for (int index = 0; e.hasNext(); ++index) {
+                if (!a.hasNext()) {
+                    System.err.println(name + " " + width + "x" + height + ": frame " + index + " is missing");
+                    return 1;
+                }
+                final int[] canvas = pixels(e.next()), output = pixels(a.next());
+                scaler.scale((y, argb) -> System.arraycopy(canvas, y * scaler.srcWidth, argb, 0, scaler.srcWidth),
+                        0, 0, scaler.srcWidth, scaler.srcHeight, 0, 0, size.width, size.height, scaled);
+                final int diff = difference(scaled, output);
+                if (diff > 0) {
+                    System.err.println(name + " " + width + "x" + height + ": frame " + index
+                            + " differs from the scaled source by up to " + diff);
+                    return 1;
+                }
+            }
+            if (a.hasNext()) {
+                System.err.println(name + " " + width + "x" + height + ": too many frames");
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    /**
+     * @return largest difference of a channel between the pixels; fully transparent pixels are equal.
+     */
+    private static int difference(int[] expected, int[] actual) {
+        int max = 0;
+        for (int i = 0; i < expected.length; ++i) {
+            final int p = expected[i] >>> 24 == 0 ? 0 : expected[i],
+                      q = actual[i] >>> 24 == 0 ? 0 : actual[i];
+            for (int shift = 0; shift < 32; shift += 8)
+                max = Math.max(max, Math.abs((p >>> shift & 0xFF) - (q >>> shift & 0xFF)));
+        }
+        return max;
+    }
+}